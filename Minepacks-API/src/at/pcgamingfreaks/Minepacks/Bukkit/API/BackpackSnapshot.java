@@ -0,0 +1,68 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.API;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Read only copy of the content of a backpack. Changes to the backpack done after the snapshot has been taken are not reflected in it.
+ */
+@SuppressWarnings("unused")
+public interface BackpackSnapshot
+{
+	/**
+	 * Gets the owner of the backpack.
+	 *
+	 * @return The owner of the backpack.
+	 */
+	@NotNull OfflinePlayer getOwner();
+
+	/**
+	 * Gets the size of the backpack.
+	 *
+	 * @return The size of the backpack.
+	 */
+	int getSize();
+
+	/**
+	 * Gets the item in a slot of the backpack.
+	 *
+	 * @param slot The slot.
+	 * @return A copy of the item in the slot. null if the slot is empty.
+	 */
+	@Nullable ItemStack getItem(int slot);
+
+	/**
+	 * Gets the content of the backpack.
+	 *
+	 * @return An unmodifiable list with copies of the items in the backpack, empty slots are null.
+	 */
+	@NotNull List<ItemStack> getContents();
+
+	/**
+	 * Gets the time the content of the backpack has been saved the last time.
+	 *
+	 * @return The time in milliseconds since the epoch. -1 if it is unknown (e.g. the snapshot has been taken from a backpack in the cache).
+	 */
+	long getLastUpdate();
+}
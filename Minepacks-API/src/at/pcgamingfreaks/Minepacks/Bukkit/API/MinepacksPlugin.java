@@ -25,6 +25,10 @@
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 @SuppressWarnings("unused")
 public interface MinepacksPlugin
 {
@@ -114,6 +118,67 @@
 	 */
 	void getBackpack(@NotNull final OfflinePlayer owner, @NotNull final Callback<Backpack> callback, boolean createNewIfNotExists);
 
+	/**
+	 * Retrieves the backpack for a given player.
+	 * This method runs async! The future completes on the main thread.
+	 * If no backpack exists a new one will be created.
+	 *
+	 * @param owner The player who's backpack should be retrieved.
+	 * @return A future delivering the backpack of the player. Completes with null if the backpack could not be loaded.
+	 */
+	default @NotNull CompletableFuture<Backpack> getBackpack(@NotNull final OfflinePlayer owner)
+	{
+		return getBackpack(owner, true, true);
+	}
+
+	/**
+	 * Retrieves the backpack for a given player.
+	 * This method runs async! If the backpack is in the cache the returned future is already completed.
+	 *
+	 * @param owner The player who's backpack should be retrieved.
+	 * @param createNewIfNotExists If set to true, a new backpack will be created if there currently is no backpack for this player.
+	 * @param completeOnMainThread If set to true, the future completes on the main thread. Otherwise it completes on the thread that has loaded the backpack,
+	 *                             the backpack must not be opened or modified from there!
+	 * @return A future delivering the backpack of the player. Completes with null if there is no backpack for the player or it could not be loaded.
+	 */
+	@NotNull CompletableFuture<Backpack> getBackpack(@NotNull final OfflinePlayer owner, boolean createNewIfNotExists, boolean completeOnMainThread);
+
+	/**
+	 * Retrieves the backpacks for multiple players. Backpacks that are not in the cache are loaded together, which is a lot faster than loading them one by one.
+	 * This method runs async! The future completes on the main thread.
+	 * If no backpack exists for a player a new one will be created.
+	 *
+	 * @param owners The players who's backpacks should be retrieved.
+	 * @return A future delivering the backpacks, mapped by their owner. Backpacks that could not be loaded are missing.
+	 */
+	default @NotNull CompletableFuture<Map<OfflinePlayer, Backpack>> getBackpacks(@NotNull final Collection<? extends OfflinePlayer> owners)
+	{
+		return getBackpacks(owners, true, true);
+	}
+
+	/**
+	 * Retrieves the backpacks for multiple players. Backpacks that are not in the cache are loaded together, which is a lot faster than loading them one by one.
+	 * This method runs async!
+	 *
+	 * @param owners The players who's backpacks should be retrieved.
+	 * @param createNewIfNotExists If set to true, new backpacks will be created for players that currently have no backpack.
+	 * @param completeOnMainThread If set to true, the future completes on the main thread. Otherwise it completes on the thread that has loaded the backpacks,
+	 *                             the backpacks must not be opened or modified from there!
+	 * @return A future delivering the backpacks, mapped by their owner. Players without a backpack (or whose backpack could not be loaded) are missing.
+	 */
+	@NotNull CompletableFuture<Map<OfflinePlayer, Backpack>> getBackpacks(@NotNull final Collection<? extends OfflinePlayer> owners, boolean createNewIfNotExists, boolean completeOnMainThread);
+
+	/**
+	 * Takes a read only snapshot of the backpack of a given player.
+	 * Backpacks that are not in the cache are loaded and deserialized async, without creating an inventory and without adding them to the cache.
+	 * Use this instead of {@link #getBackpack(OfflinePlayer)} if you only want to look at the content of the backpack.
+	 * The future does not complete on the main thread, snapshots can be used from any thread.
+	 *
+	 * @param owner The player who's backpack should be retrieved.
+	 * @return A future delivering the snapshot. Completes with null if the player has no backpack or it could not be loaded.
+	 */
+	@NotNull CompletableFuture<BackpackSnapshot> getBackpackSnapshot(@NotNull final OfflinePlayer owner);
+
 	/**
 	 * Gets the command manager of the Minepacks plugin.
 	 *
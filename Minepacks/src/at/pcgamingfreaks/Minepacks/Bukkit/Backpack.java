@@ -19,7 +19,10 @@
 
 import at.pcgamingfreaks.Bukkit.MCVersion;
 import at.pcgamingfreaks.Bukkit.Util.InventoryUtils;
+import at.pcgamingfreaks.Minepacks.Bukkit.Database.Database;
 import at.pcgamingfreaks.Minepacks.Bukkit.Database.Helper.InventoryCompressor;
+import at.pcgamingfreaks.Minepacks.Bukkit.Database.InventorySerializer;
+import at.pcgamingfreaks.Minepacks.Bukkit.Database.SerializedBackpack;
 import at.pcgamingfreaks.StringUtils;
 
 import org.bukkit.Bukkit;
@@ -41,6 +44,8 @@
 
 public class Backpack implements at.pcgamingfreaks.Minepacks.Bukkit.API.Backpack
 {
+	// Rough estimates for the heap usage of a backpack: the objects of the backpack and its inventory, every slot of the inventory and the item stacks per byte of their serialized form
+	private static final long BASE_WEIGHT = 512, SLOT_WEIGHT = 16, ITEM_DATA_WEIGHT_FACTOR = 4;
 	@Setter(AccessLevel.PACKAGE) private static ShrinkApproach shrinkApproach = ShrinkApproach.COMPRESS;
 	private static Object titleOwn;
 	private static String titleOtherFormat;
@@ -48,8 +53,12 @@ public class Backpack implements at.pcgamingfreaks.Minepacks.Bukkit.API.Backpack
 	private final OfflinePlayer owner;
 	private final Map<Player, Boolean> opened = new ConcurrentHashMap<>(); //Thanks Minecraft 1.14
 	private Inventory bp;
+	private SerializedBackpack stored; // The data of the backpack as long as it has not been deserialized
 	private int size, ownerID;
 	private boolean hasChanged;
+	private volatile long persistedChecksum = -1; // Updated by the serializer threads
+	private long accountedWeight = 0;
+	private int payloadSize = 0;
 
 	public static void setTitle(final @NotNull String title, final @NotNull String titleOther)
 	{
@@ -68,22 +77,49 @@ public Backpack(OfflinePlayer owner, int size)
 	}
 
 	public Backpack(OfflinePlayer owner, int size, int ID)
+	{
+		this.owner = owner;
+		titleOther = StringUtils.limitLength(String.format(titleOtherFormat, owner.getName()), 32);
+		ownerID = ID;
+		createInventory(size);
+	}
+	
+	public Backpack(final OfflinePlayer owner, ItemStack[] backpack, final int ID)
+	{
+		this(owner, backpack.length, ID);
+		setContents(backpack);
+	}
+
+	/**
+	 * Creates a backpack that keeps its stored data. The data only gets deserialized once the inventory of the backpack is needed.
+	 *
+	 * @param owner The owner of the backpack.
+	 * @param stored The stored data of the backpack.
+	 * @param ID The database id of the owner.
+	 */
+	public Backpack(final @NotNull OfflinePlayer owner, final @NotNull SerializedBackpack stored, final int ID)
+	{
+		this.owner = owner;
+		titleOther = StringUtils.limitLength(String.format(titleOtherFormat, owner.getName()), 32);
+		ownerID = ID;
+		this.stored = stored;
+		persistedChecksum = stored.getChecksum();
+		payloadSize = InventorySerializer.getUncompressedSize(stored);
+	}
+
+	private void createInventory(int size)
 	{
 		if(MCVersion.isNewerOrEqualThan(MCVersion.MC_1_14) && size > 54)
 		{
 			size = 54;
 			Minepacks.getInstance().getLogger().warning("Backpacks with more than 6 rows are no longer supported on Minecraft 1.14 and up!");
 		}
-		this.owner = owner;
-		titleOther = StringUtils.limitLength(String.format(titleOtherFormat, owner.getName()), 32);
 		bp = Bukkit.createInventory(this, size, titleOther);
 		this.size = size;
-		ownerID = ID;
 	}
-	
-	public Backpack(final OfflinePlayer owner, ItemStack[] backpack, final int ID)
+
+	private void setContents(ItemStack[] backpack)
 	{
-		this(owner, backpack.length, ID);
 		if(MCVersion.isNewerOrEqualThan(MCVersion.MC_1_14) && backpack.length > 54)
 		{ // Try to optimize space usage to compress items into only 6 rows
 			InventoryCompressor compressor = new InventoryCompressor(backpack, 54);
@@ -110,6 +146,52 @@ public Backpack(final OfflinePlayer owner, ItemStack[] backpack, final int ID)
 		}
 		bp.setContents(backpack);
 	}
+
+	/**
+	 * Deserializes the stored data of the backpack if it has not been done yet.
+	 *
+	 * @return The inventory of the backpack.
+	 */
+	private synchronized @NotNull Inventory load()
+	{
+		if(bp != null) return bp;
+		Database database = Minepacks.getInstance().getDatabase();
+		ItemStack[] items = database.loadItems(owner, stored);
+		if(items != null)
+		{
+			createInventory(items.length);
+			setContents(items);
+			if(database.isOutdatedFormat(stored.getVersion())) setChanged(); // Stored in an old format, make sure it gets converted on the next save
+		}
+		else
+		{ // The stored data has been written to the backups folder
+			createInventory(9);
+			payloadSize = 0;
+		}
+		stored = null;
+		database.updateWeight(this);
+		return bp;
+	}
+
+	/**
+	 * Checks if the stored data of the backpack has already been deserialized.
+	 *
+	 * @return True if the inventory of the backpack exists.
+	 */
+	public boolean isLoaded()
+	{
+		return bp != null;
+	}
+
+	/**
+	 * Gets the stored data of a backpack that has not been deserialized yet.
+	 *
+	 * @return The stored data. null if the backpack has been deserialized.
+	 */
+	public @Nullable SerializedBackpack getStoredData()
+	{
+		return stored;
+	}
 	
 	public int getOwnerID()
 	{
@@ -121,6 +203,58 @@ public void setOwnerID(int id)
 		ownerID = id;
 	}
 
+	/**
+	 * Gets the checksum of the data that has been loaded from or written to the database the last time.
+	 *
+	 * @return The checksum of the stored data. -1 if the backpack has never been stored.
+	 */
+	public long getPersistedChecksum()
+	{
+		return persistedChecksum;
+	}
+
+	public void setPersistedChecksum(long checksum)
+	{
+		persistedChecksum = checksum;
+	}
+
+	/**
+	 * Sets the size of the uncompressed data the backpack has been stored with the last time. Used to estimate the heap usage of the backpack.
+	 *
+	 * @param payloadSize The size of the uncompressed serialized inventory in bytes.
+	 */
+	public void setPayloadSize(int payloadSize)
+	{
+		this.payloadSize = payloadSize;
+	}
+
+	/**
+	 * Estimates the amount of heap used by the backpack. Changes done since the backpack has been saved the last time are not included.
+	 *
+	 * @return The estimated size in bytes.
+	 */
+	public long estimateWeight()
+	{
+		SerializedBackpack stored = this.stored;
+		if(stored != null) return BASE_WEIGHT + stored.getData().length;
+		return BASE_WEIGHT + size * SLOT_WEIGHT + payloadSize * ITEM_DATA_WEIGHT_FACTOR;
+	}
+
+	/**
+	 * Gets the weight of the backpack that is currently included in the total weight of the cache.
+	 *
+	 * @return The weight in bytes.
+	 */
+	public long getAccountedWeight()
+	{
+		return accountedWeight;
+	}
+
+	public void setAccountedWeight(long weight)
+	{
+		accountedWeight = weight;
+	}
+
 	@Override
 	public @NotNull OfflinePlayer getOwner()
 	{
@@ -135,7 +269,7 @@ private void checkResize()
 			if(owner != null && owner.hasPermission(Permissions.USE))
 			{
 				int size = Minepacks.getInstance().getBackpackPermSize(owner);
-				if(size != bp.getSize())
+				if(size != load().getSize())
 				{
 					List<ItemStack> items = setSize(size);
 					for(ItemStack i : items)
@@ -155,8 +289,8 @@ public void open(final @NotNull Player player, final boolean editable)
 	{
 		checkResize();
 		opened.put(player, editable);
-		if(owner.equals(player)) InventoryUtils.openInventoryWithCustomTitlePrepared(player, bp, titleOwn);
-		else player.openInventory(bp);
+		if(owner.equals(player)) InventoryUtils.openInventoryWithCustomTitlePrepared(player, load(), titleOwn);
+		else player.openInventory(load());
 	}
 
 	@Override
@@ -169,12 +303,12 @@ public void open(final @NotNull Player player, final boolean editable, final @Nu
 		}
 		checkResize();
 		opened.put(player, editable);
-		InventoryUtils.openInventoryWithCustomTitle(player, bp, title);
+		InventoryUtils.openInventoryWithCustomTitle(player, load(), title);
 	}
 
 	public void close(Player p)
 	{
-		opened.remove(p);
+		if(opened.remove(p) != null && opened.isEmpty()) Minepacks.getInstance().getDatabase().onBackpackClosed(this);
 	}
 
 	public void closeAll()
@@ -199,11 +333,13 @@ public boolean canEdit(@NotNull Player player)
 	@Override
 	public int getSize()
 	{
+		load();
 		return size;
 	}
 	
 	public @NotNull List<ItemStack> setSize(int newSize)
 	{
+		load();
 		opened.forEach((key, value) -> key.closeInventory()); // Close all open views of the inventory
 		List<ItemStack> removedItems;
 		ItemStack[] itemStackArray;
@@ -239,7 +375,7 @@ public int getSize()
 	@Override
 	public @NotNull Inventory getInventory()
 	{
-		return bp;
+		return load();
 	}
 
 	@Override
@@ -272,7 +408,7 @@ public void backup()
 	@Override
 	public void clear()
 	{
-		bp.clear();
+		load().clear();
 		setChanged();
 		save();
 	}
@@ -280,7 +416,7 @@ public void clear()
 	@Override
 	public void drop(final @NotNull Location location)
 	{
-		InventoryUtils.dropInventory(bp, location);
+		InventoryUtils.dropInventory(load(), location);
 		setChanged();
 		save();
 	}
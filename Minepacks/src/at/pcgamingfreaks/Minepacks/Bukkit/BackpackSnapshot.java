@@ -0,0 +1,82 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class BackpackSnapshot implements at.pcgamingfreaks.Minepacks.Bukkit.API.BackpackSnapshot
+{
+	private final OfflinePlayer owner;
+	private final ItemStack[] items;
+	private final long lastUpdate;
+
+	/**
+	 * @param owner The owner of the backpack.
+	 * @param items The items of the backpack. The array and the items must not be used anywhere else.
+	 * @param lastUpdate The time the backpack has been saved the last time. -1 if unknown.
+	 */
+	public BackpackSnapshot(final @NotNull OfflinePlayer owner, final @NotNull ItemStack[] items, final long lastUpdate)
+	{
+		this.owner = owner;
+		this.items = items;
+		this.lastUpdate = lastUpdate;
+	}
+
+	@Override
+	public @NotNull OfflinePlayer getOwner()
+	{
+		return owner;
+	}
+
+	@Override
+	public int getSize()
+	{
+		return items.length;
+	}
+
+	@Override
+	public @Nullable ItemStack getItem(final int slot)
+	{
+		ItemStack item = items[slot];
+		return (item != null) ? item.clone() : null;
+	}
+
+	@Override
+	public @NotNull List<ItemStack> getContents()
+	{
+		List<ItemStack> contents = new ArrayList<>(items.length);
+		for(ItemStack item : items)
+		{
+			contents.add((item != null) ? item.clone() : null);
+		}
+		return Collections.unmodifiableList(contents);
+	}
+
+	@Override
+	public long getLastUpdate()
+	{
+		return lastUpdate;
+	}
+}
@@ -80,6 +80,7 @@ public CommandManager(@NotNull Minepacks plugin)
 		registerSubCommand(new BackupCommand(plugin));
 		registerSubCommand(new RestoreCommand(plugin));
 		registerSubCommand(new MigrateCommand(plugin));
+		registerSubCommand(new DictionaryCommand(plugin));
 		registerSubCommand(new VersionCommand(plugin));
 		registerSubCommand(new DebugCommand(plugin));
 		registerSubCommand(new HelpCommand(plugin, commands, this));
@@ -46,7 +46,9 @@
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class DebugCommand extends MinepacksCommand
 {
@@ -105,6 +107,13 @@ public void execute(@NotNull CommandSender commandSender, @NotNull String mainCo
 				writer.append(line).append('\n');
 			}
 		}
+		writer.append("\nDatabase statistics:\n");
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		((Minepacks) plugin).getDatabase().collectStatistics(statistics);
+		for(Map.Entry<String, Object> entry : statistics.entrySet())
+		{
+			writer.append(entry.getKey()).append(": ").append(String.valueOf(entry.getValue())).append('\n');
+		}
 		writer.append("\n\n\nSelf-test results:\n");
 
 		ItemStack slot = sender.getInventory().getItem(0);
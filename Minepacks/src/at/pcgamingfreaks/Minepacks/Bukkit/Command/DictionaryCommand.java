@@ -0,0 +1,133 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Command;
+
+import at.pcgamingfreaks.Command.HelpData;
+import at.pcgamingfreaks.Minepacks.Bukkit.API.MinepacksCommand;
+import at.pcgamingfreaks.Minepacks.Bukkit.Database.Database;
+import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
+import at.pcgamingfreaks.Minepacks.Bukkit.Permissions;
+
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class DictionaryCommand extends MinepacksCommand
+{
+	private static final int DEFAULT_SAMPLES = 500, MAX_SAMPLES = 5000;
+
+	private final Minepacks plugin;
+	private boolean training = false;
+
+	public DictionaryCommand(final @NotNull Minepacks plugin)
+	{
+		super(plugin, "dictionary", "Trains the compression dictionary for the stored backpacks.", Permissions.DICTIONARY, false);
+		this.plugin = plugin;
+	}
+
+	@Override
+	public void execute(final @NotNull CommandSender sender, final @NotNull String mainCommandAlias, final @NotNull String alias, final @NotNull String[] args)
+	{
+		if(args.length >= 1)
+		{
+			switch(args[0].toLowerCase(Locale.ROOT))
+			{
+				case "train": train(sender, args); return;
+				case "info": info(sender); return;
+			}
+		}
+		sender.sendMessage("/" + mainCommandAlias + ' ' + alias + " <train [samples]/info>");
+	}
+
+	private void info(final @NotNull CommandSender sender)
+	{
+		Database database = plugin.getDatabase();
+		Integer active = database.getActiveDictionary();
+		sender.sendMessage("Known compression dictionaries: " + database.getDictionaries().size());
+		sender.sendMessage("Active compression dictionary: " + ((active != null) ? Integer.toHexString(active) : "none"));
+		if(!plugin.getConfiguration().isCompressionEnabled()) sender.sendMessage("Compression is disabled in the config, the dictionary will not be used for new data.");
+	}
+
+	private void train(final @NotNull CommandSender sender, final @NotNull String[] args)
+	{
+		int samples = DEFAULT_SAMPLES;
+		if(args.length >= 2)
+		{
+			try
+			{
+				samples = Math.max(1, Math.min(MAX_SAMPLES, Integer.parseInt(args[1])));
+			}
+			catch(NumberFormatException ignored)
+			{
+				sender.sendMessage(args[1] + " is not a number!");
+				return;
+			}
+		}
+		if(training)
+		{
+			sender.sendMessage("A dictionary is already being trained.");
+			return;
+		}
+		training = true;
+		final Database database = plugin.getDatabase();
+		final int sampleCount = samples;
+		sender.sendMessage("Training compression dictionary from up to " + sampleCount + " backpacks ...");
+		plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+			String result;
+			try
+			{
+				Integer id = database.trainDictionary(sampleCount);
+				result = (id != null) ? "The compression dictionary " + Integer.toHexString(id) + " has been trained and will be used for all backpacks saved from now on." :
+						"There are not enough stored backpacks to train a compression dictionary.";
+			}
+			catch(Exception e)
+			{
+				e.printStackTrace();
+				result = "Failed to train the compression dictionary! Please check the console for details.";
+			}
+			final String message = result;
+			plugin.getServer().getScheduler().runTask(plugin, () -> {
+				training = false;
+				sender.sendMessage(message);
+			});
+		});
+	}
+
+	@Override
+	public List<String> tabComplete(final @NotNull CommandSender sender, final @NotNull String mainCommandAlias, final @NotNull String alias, final @NotNull String[] args)
+	{
+		List<String> completions = new ArrayList<>(2);
+		if(args.length == 1)
+		{
+			for(String option : new String[] { "train", "info" })
+			{
+				if(option.startsWith(args[0].toLowerCase(Locale.ROOT))) completions.add(option);
+			}
+		}
+		return completions;
+	}
+
+	@Override
+	public List<HelpData> getHelp(final @NotNull CommandSender requester)
+	{
+		return null;
+	}
+}
@@ -0,0 +1,601 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * The append only segment files used by the {@link LogFiles} database.
+ * Every save appends a new record (the used serializer byte and the serialized inventory) to the active segment. Once a segment reaches its max size it gets sealed
+ * by writing an index of its records as footer, so the in memory index can be rebuilt without reading the whole log.
+ * Apart from {@link #compact(Executor)} all methods have to be called from the same thread.
+ */
+class BackpackLog
+{
+	static final String EXT = ".segment";
+	private static final Pattern SEGMENT_NAME_PATTERN = Pattern.compile("^segment-(\\d+)\\.segment$");
+	private static final int RECORD_MAGIC = 0x4D504252, FOOTER_MAGIC = 0x4D505346; // "MPBR" and "MPSF"
+	static final int RECORD_HEADER_SIZE = 4 + 16 + 8 + 8 + 1 + 4, CRC_SIZE = 4; // magic, uuid, sequence, timestamp, version, payload length
+	private static final int FOOTER_ENTRY_SIZE = 16 + 8 + 8 + 8 + 4, FOOTER_TRAILER_SIZE = 4 + 8 + 4 + 4; // uuid, sequence, timestamp, offset, payload length | count, start, crc, magic
+
+	private final File folder;
+	private final Logger logger;
+	private final long maxSegmentSize, maxAge;
+	private final double compactionThreshold;
+	private final boolean memoryMapped;
+	private final Map<UUID, Location> index = new ConcurrentHashMap<>();
+	private final Map<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+	private final AtomicBoolean compacting = new AtomicBoolean(false);
+	private final AtomicLong compactions = new AtomicLong(), reclaimedBytes = new AtomicLong();
+	private int nextSegmentId = 0;
+	private long nextSequence = 0;
+	private volatile Segment active;
+
+	/**
+	 * Opens the segments stored in the folder and starts a new active segment.
+	 *
+	 * @param folder The folder the segments are stored in. Has to exist.
+	 * @param logger The logger used to report damaged segments.
+	 * @param maxSegmentSize The size (in bytes) after which the active segment gets sealed.
+	 * @param compactionThreshold The share of live data below which a sealed segment gets compacted.
+	 * @param memoryMapped True to read the records of sealed segments from memory mapped files.
+	 * @param maxAge The age (in milliseconds) after which records get removed on compaction. 0 or less to keep them forever.
+	 */
+	BackpackLog(final @NotNull File folder, final @NotNull Logger logger, final long maxSegmentSize, final double compactionThreshold, final boolean memoryMapped, final long maxAge) throws IOException
+	{
+		this.folder = folder;
+		this.logger = logger;
+		this.maxSegmentSize = maxSegmentSize;
+		this.compactionThreshold = compactionThreshold;
+		this.memoryMapped = memoryMapped;
+		this.maxAge = maxAge;
+		openSegments();
+		active = createSegment(allocateSegmentId());
+		segments.put(active.id, active);
+	}
+
+	/**
+	 * Seals the active segment (or deletes it if nothing has been written to it) and closes all segments.
+	 */
+	void close()
+	{
+		try
+		{
+			if(active.size == 0)
+			{ // Nothing has been written, there is no need to keep the segment
+				segments.remove(active.id);
+				active.close();
+				if(!active.file.delete()) logger.warning("Failed to delete segment " + active.file.getAbsolutePath() + ".");
+			}
+			else seal(active);
+		}
+		catch(IOException e)
+		{
+			logger.warning("Failed to seal segment " + active.file.getName() + "! It will be checked on the next start. Error: " + e.getMessage());
+		}
+		for(Segment segment : segments.values())
+		{
+			segment.close();
+		}
+		segments.clear();
+		index.clear();
+	}
+
+	//region Startup
+	private void openSegments() throws IOException
+	{
+		File[] files = folder.listFiles((dir, name) -> SEGMENT_NAME_PATTERN.matcher(name).matches());
+		if(files == null) return;
+		SortedMap<Integer, File> sortedFiles = new TreeMap<>();
+		for(File file : files)
+		{
+			Matcher matcher = SEGMENT_NAME_PATTERN.matcher(file.getName());
+			if(matcher.matches()) sortedFiles.put(Integer.parseInt(matcher.group(1)), file);
+		}
+		for(Map.Entry<Integer, File> entry : sortedFiles.entrySet())
+		{
+			Segment segment = new Segment(entry.getKey(), entry.getValue());
+			if(!readFooter(segment))
+			{ // The server has not been stopped cleanly, rebuild the index of the segment from its records
+				logger.info("Segment " + segment.file.getName() + " has not been sealed, checking its records ...");
+				scan(segment);
+				seal(segment);
+			}
+			segments.put(segment.id, segment);
+			nextSegmentId = segment.id + 1;
+		}
+		for(Location location : index.values())
+		{
+			if(location.sequence >= nextSequence) nextSequence = location.sequence + 1;
+		}
+	}
+
+	private boolean readFooter(final @NotNull Segment segment) throws IOException
+	{
+		long size = segment.channel.size();
+		if(size < FOOTER_TRAILER_SIZE) return false;
+		ByteBuffer trailer = ByteBuffer.allocate(FOOTER_TRAILER_SIZE);
+		readFully(segment.channel, trailer, size - FOOTER_TRAILER_SIZE);
+		trailer.flip();
+		int count = trailer.getInt();
+		long start = trailer.getLong();
+		int crc = trailer.getInt();
+		if(trailer.getInt() != FOOTER_MAGIC || count < 0 || start < 0 || start + (long) count * FOOTER_ENTRY_SIZE + FOOTER_TRAILER_SIZE != size) return false;
+		ByteBuffer entries = ByteBuffer.allocate(count * FOOTER_ENTRY_SIZE);
+		readFully(segment.channel, entries, start);
+		if(crc(entries.array(), 0, entries.capacity()) != crc) return false;
+		entries.flip();
+		for(int i = 0; i < count; i++)
+		{
+			UUID uuid = new UUID(entries.getLong(), entries.getLong());
+			Location location = new Location(segment, uuid, entries.getLong(), entries.getLong(), entries.getLong(), entries.getInt());
+			segment.track(location);
+			index(location);
+		}
+		segment.size = start;
+		segment.sealed = true;
+		return true;
+	}
+
+	private void scan(final @NotNull Segment segment) throws IOException
+	{
+		long position = 0, size = segment.channel.size();
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		while(position + RECORD_HEADER_SIZE + CRC_SIZE <= size)
+		{
+			header.clear();
+			readFully(segment.channel, header, position);
+			header.flip();
+			if(header.getInt() != RECORD_MAGIC) break;
+			UUID uuid = new UUID(header.getLong(), header.getLong());
+			long sequence = header.getLong(), timestamp = header.getLong();
+			header.get(); // version
+			int length = header.getInt();
+			if(length < 0 || position + RECORD_HEADER_SIZE + length + CRC_SIZE > size) break;
+			Location location = new Location(segment, uuid, sequence, timestamp, position, length);
+			if(readRecord(location) == null) break;
+			segment.addRecord(location);
+			index(location);
+			position += location.getRecordSize();
+		}
+		if(position < size)
+		{
+			logger.warning("Discarding " + (size - position) + " bytes of incomplete data at the end of segment " + segment.file.getName() + ".");
+			segment.channel.truncate(position);
+		}
+		segment.size = position;
+	}
+	//endregion
+
+	//region Segment handling
+	private synchronized int allocateSegmentId()
+	{
+		return nextSegmentId++;
+	}
+
+	private @NotNull Segment createSegment(final int id) throws IOException
+	{
+		return new Segment(id, new File(folder, String.format("segment-%08d%s", id, EXT)));
+	}
+
+	private void seal(final @NotNull Segment segment) throws IOException
+	{
+		if(segment.sealed) return;
+		List<Location> records = segment.records;
+		ByteBuffer footer = ByteBuffer.allocate(records.size() * FOOTER_ENTRY_SIZE + FOOTER_TRAILER_SIZE);
+		for(Location location : records)
+		{
+			footer.putLong(location.uuid.getMostSignificantBits()).putLong(location.uuid.getLeastSignificantBits());
+			footer.putLong(location.sequence).putLong(location.timestamp).putLong(location.offset).putInt(location.length);
+		}
+		footer.putInt(records.size()).putLong(segment.size).putInt(crc(footer.array(), 0, records.size() * FOOTER_ENTRY_SIZE)).putInt(FOOTER_MAGIC);
+		footer.flip();
+		writeFully(segment.channel, footer, segment.size);
+		segment.channel.force(true);
+		segment.sealed = true;
+		segment.records.clear(); // The footer is the index now, the records are only needed in memory until the segment is sealed
+	}
+
+	private void rotate() throws IOException
+	{
+		seal(active);
+		Segment segment = createSegment(allocateSegmentId());
+		segments.put(segment.id, segment);
+		active = segment;
+	}
+
+	private void index(final @NotNull Location location)
+	{
+		Location old = index.get(location.uuid);
+		if(old != null && old.sequence >= location.sequence) return; // Outdated record
+		index.put(location.uuid, location);
+		location.segment.liveBytes.addAndGet(location.getRecordSize());
+		if(old != null) old.segment.liveBytes.addAndGet(-old.getRecordSize());
+	}
+	//endregion
+
+	//region Record IO
+	/**
+	 * Appends a record to the active segment. Seals the active segment and starts a new one first if it has reached its max size.
+	 *
+	 * @param uuid The uuid of the owner of the backpack.
+	 * @param version The serializer that has been used to create the data.
+	 * @param data The serialized backpack.
+	 */
+	void append(final @NotNull UUID uuid, final int version, final @NotNull byte[] data) throws IOException
+	{
+		if(active.size >= maxSegmentSize) rotate();
+		Segment segment = active;
+		Location location = new Location(segment, uuid, nextSequence++, System.currentTimeMillis(), segment.size, data.length);
+		writeFully(segment.channel, encodeRecord(uuid, location.sequence, location.timestamp, version, data), segment.size);
+		segment.size += location.getRecordSize();
+		segment.addRecord(location);
+		index(location);
+	}
+
+	/**
+	 * Reads the latest record of a backpack.
+	 *
+	 * @param uuid The uuid of the owner of the backpack.
+	 * @return The stored backpack. null if there is none or if it is damaged.
+	 */
+	@Nullable SerializedBackpack read(final @NotNull UUID uuid)
+	{
+		Location location = index.get(uuid);
+		if(location == null) return null;
+		try
+		{
+			ByteBuffer record = readRecord(location);
+			if(record == null)
+			{
+				logger.warning("The stored backpack of " + uuid + " is damaged!");
+				return null;
+			}
+			byte[] data = new byte[location.length]; // The serializers only work with arrays, so the payload has to be copied once
+			record.position(RECORD_HEADER_SIZE);
+			record.get(data);
+			return new SerializedBackpack(data, record.get(RECORD_HEADER_SIZE - 5) & 0xFF);
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * @param uuid The uuid of the owner of the backpack.
+	 * @return The time the latest record of the backpack has been written. -1 if there is none.
+	 */
+	long getTimestamp(final @NotNull UUID uuid)
+	{
+		Location location = index.get(uuid);
+		return (location != null) ? location.timestamp : -1;
+	}
+
+	@NotNull Set<UUID> getStoredUUIDs()
+	{
+		return index.keySet();
+	}
+
+	private static @NotNull ByteBuffer encodeRecord(final @NotNull UUID uuid, final long sequence, final long timestamp, final int version, final @NotNull byte[] data)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length + CRC_SIZE);
+		buffer.putInt(RECORD_MAGIC).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+		buffer.putLong(sequence).putLong(timestamp).put((byte) version).putInt(data.length).put(data);
+		buffer.putInt(crc(buffer.array(), 4, RECORD_HEADER_SIZE - 4 + data.length));
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Reads a record and checks its integrity. Records of sealed segments are read straight from the mapped segment if memory mapping is enabled.
+	 *
+	 * @param location The location of the record.
+	 * @return The raw record, positioned at its start. null if the record is damaged.
+	 */
+	private @Nullable ByteBuffer readRecord(final @NotNull Location location) throws IOException
+	{
+		ByteBuffer buffer;
+		ByteBuffer mapped = memoryMapped ? location.segment.map() : null;
+		if(mapped != null)
+		{
+			buffer = mapped.duplicate();
+			buffer.position((int) location.offset).limit((int) location.offset + location.getRecordSize());
+			buffer = buffer.slice();
+		}
+		else
+		{
+			buffer = ByteBuffer.allocate(location.getRecordSize());
+			readFully(location.segment.channel, buffer, location.offset);
+			buffer.flip();
+		}
+		if(buffer.getInt(0) != RECORD_MAGIC || buffer.getLong(4) != location.uuid.getMostSignificantBits() || buffer.getLong(12) != location.uuid.getLeastSignificantBits()) return null;
+		ByteBuffer checked = buffer.duplicate();
+		checked.position(4).limit(RECORD_HEADER_SIZE + location.length);
+		CRC32 crc = new CRC32();
+		crc.update(checked);
+		if(buffer.getInt(RECORD_HEADER_SIZE + location.length) != (int) crc.getValue()) return null;
+		return buffer;
+	}
+
+	private static int crc(final @NotNull byte[] data, final int offset, final int length)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+		return (int) crc.getValue();
+	}
+
+	private static void readFully(final @NotNull FileChannel channel, final @NotNull ByteBuffer buffer, long position) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position);
+			if(read < 0) throw new IOException("Unexpected end of segment");
+			position += read;
+		}
+	}
+
+	private static void writeFully(final @NotNull FileChannel channel, final @NotNull ByteBuffer buffer, long position) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			position += channel.write(buffer, position);
+		}
+	}
+	//endregion
+
+	//region Compaction
+	/**
+	 * Copies the live records of sealed segments with mostly outdated or expired records into a new segment and deletes the old segments.
+	 * Can be called from any thread, only one compaction runs at a time.
+	 *
+	 * @param ioExecutor The executor of the thread using the log. The index entries are swapped on it, so a record that got saved again in the meantime keeps its new location.
+	 */
+	void compact(final @NotNull Executor ioExecutor)
+	{
+		if(!compacting.compareAndSet(false, true)) return;
+		Segment target = null;
+		try
+		{
+			final long now = System.currentTimeMillis();
+			final Set<Segment> candidates = new HashSet<>();
+			for(Segment segment : segments.values())
+			{
+				if(!segment.sealed || segment == active) continue;
+				if(segment.liveBytes.get() == 0 || segment.liveBytes.get() < segment.size * compactionThreshold || (maxAge > 0 && now - segment.oldestTimestamp > maxAge)) candidates.add(segment);
+			}
+			if(candidates.isEmpty()) return;
+			final List<Location> kept = new ArrayList<>(), moved = new ArrayList<>(), copies = new ArrayList<>(), expired = new ArrayList<>();
+			for(Location location : index.values())
+			{
+				if(!candidates.contains(location.segment)) continue;
+				if(maxAge > 0 && now - location.timestamp > maxAge) expired.add(location);
+				else kept.add(location);
+			}
+			if(!kept.isEmpty())
+			{
+				target = createSegment(allocateSegmentId());
+				for(Location location : kept)
+				{
+					ByteBuffer record = readRecord(location);
+					if(record == null)
+					{
+						logger.warning("Record of " + location.uuid + " in segment " + location.segment.file.getName() + " is damaged and can't be compacted.");
+						continue;
+					}
+					Location copy = new Location(target, location.uuid, location.sequence, location.timestamp, target.size, location.length);
+					writeFully(target.channel, record, target.size);
+					target.size += location.getRecordSize();
+					target.addRecord(copy);
+					moved.add(location);
+					copies.add(copy);
+				}
+				seal(target);
+			}
+			final Segment finalTarget = target;
+			CompletableFuture.runAsync(() -> {
+				long reclaimed = 0;
+				if(finalTarget != null)
+				{
+					segments.put(finalTarget.id, finalTarget);
+					for(int i = 0; i < moved.size(); i++)
+					{
+						Location old = moved.get(i), copy = copies.get(i);
+						if(index.replace(old.uuid, old, copy))
+						{
+							finalTarget.liveBytes.addAndGet(copy.getRecordSize());
+							old.segment.liveBytes.addAndGet(-old.getRecordSize());
+						}
+					}
+				}
+				for(Location location : expired)
+				{
+					if(index.remove(location.uuid, location)) location.segment.liveBytes.addAndGet(-location.getRecordSize());
+				}
+				for(Segment segment : candidates)
+				{
+					reclaimed += segment.size;
+					segments.remove(segment.id);
+					segment.close();
+					if(!segment.file.delete()) segment.file.deleteOnExit(); // Mapped files can't be deleted on some systems until they are unmapped
+				}
+				if(finalTarget != null) reclaimed -= finalTarget.size;
+				reclaimedBytes.addAndGet(reclaimed);
+				compactions.incrementAndGet();
+			}, ioExecutor).get();
+			target = null;
+		}
+		catch(RejectedExecutionException ignored) {} // The log is already closed
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch(Exception e)
+		{
+			logger.warning("Failed to compact the backpack log! Error: " + e.getMessage());
+		}
+		finally
+		{
+			if(target != null && !segments.containsKey(target.id))
+			{ // The compaction has failed, the old segments are still in use
+				target.close();
+				//noinspection ResultOfMethodCallIgnored
+				target.file.delete();
+			}
+			compacting.set(false);
+		}
+	}
+	//endregion
+
+	void collectStatistics(final @NotNull Map<String, Object> statistics)
+	{
+		long size = 0, live = 0;
+		int mapped = 0;
+		for(Segment segment : segments.values())
+		{
+			size += segment.size;
+			live += segment.liveBytes.get();
+			if(segment.mapped != null) mapped++;
+		}
+		statistics.put("Log segments", segments.size());
+		statistics.put("Log indexed backpacks", index.size());
+		statistics.put("Log size (bytes)", size);
+		statistics.put("Log live data (bytes)", live);
+		if(memoryMapped) statistics.put("Log mapped segments", mapped);
+		statistics.put("Log compactions", compactions.get());
+		statistics.put("Log reclaimed (bytes)", reclaimedBytes.get());
+	}
+
+	int getSegmentCount()
+	{
+		return segments.size();
+	}
+
+	long getCompactions()
+	{
+		return compactions.get();
+	}
+
+	long getReclaimedBytes()
+	{
+		return reclaimedBytes.get();
+	}
+
+	private static final class Segment
+	{
+		final int id;
+		final File file;
+		final FileChannel channel;
+		final List<Location> records = new ArrayList<>();
+		final AtomicLong liveBytes = new AtomicLong();
+		volatile long size = 0, oldestTimestamp = Long.MAX_VALUE;
+		volatile boolean sealed = false;
+		volatile MappedByteBuffer mapped = null;
+
+		Segment(final int id, final @NotNull File file) throws IOException
+		{
+			this.id = id;
+			this.file = file;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+
+		void addRecord(final @NotNull Location location)
+		{
+			records.add(location);
+			track(location);
+		}
+
+		void track(final @NotNull Location location)
+		{
+			if(location.timestamp < oldestTimestamp) oldestTimestamp = location.timestamp;
+		}
+
+		/**
+		 * Maps the records of the segment into memory. Only sealed segments get mapped, they never change again.
+		 *
+		 * @return The mapped records. null if the segment can't be mapped.
+		 */
+		@Nullable MappedByteBuffer map() throws IOException
+		{
+			MappedByteBuffer buffer = mapped;
+			if(buffer == null && sealed && size <= Integer.MAX_VALUE)
+			{
+				synchronized(this)
+				{
+					if(mapped == null && channel.isOpen()) mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+					buffer = mapped;
+				}
+			}
+			return buffer;
+		}
+
+		void close()
+		{
+			mapped = null; // The mapping itself is released once the buffer gets garbage collected
+			try
+			{
+				channel.close();
+			}
+			catch(IOException ignored) {}
+		}
+	}
+
+	private static final class Location
+	{
+		final Segment segment;
+		final UUID uuid;
+		final long sequence, timestamp, offset;
+		final int length;
+
+		Location(final @NotNull Segment segment, final @NotNull UUID uuid, final long sequence, final long timestamp, final long offset, final int length)
+		{
+			this.segment = segment;
+			this.uuid = uuid;
+			this.sequence = sequence;
+			this.timestamp = timestamp;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		int getRecordSize()
+		{
+			return RECORD_HEADER_SIZE + length + CRC_SIZE;
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import at.pcgamingfreaks.Bukkit.ItemStackSerializer.ItemStackSerializer;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+
+/**
+ * Serializes inventories into a varint stream. Stacks without item meta are stored as material, amount and durability,
+ * only stacks with meta go through the NBT serializer.
+ * <p>
+ * Layout: format version, Minecraft data version (since format version 2), inventory size, entry count, entries.
+ * Every entry starts with the distance to the previous used slot, followed by a header (material reference &lt;&lt; 1 | 0 for plain stacks, NBT length &lt;&lt; 1 | 1 for stacks with meta).
+ * Materials are referenced by their name, every name is only written the first time it is used in a stream.
+ * <p>
+ * Materials that have been renamed by a Minecraft update are mapped to their new name. Items that still can't be loaded are left out,
+ * the rest of the inventory is loaded anyway.
+ */
+final class CompactItemStackSerializer
+{
+	private static final int FORMAT_VERSION = 2, MAX_RETAINED_BUFFER_SIZE = 1024 * 1024, MAX_INVENTORY_SIZE = 1024;
+	private static final int DATA_VERSION = getDataVersion();
+	private static final Map<String, Material> MATERIAL_CACHE = new ConcurrentHashMap<>();
+	private static final Map<String, String> RENAMED_MATERIALS = new HashMap<>(); // Old name -> new name
+	static
+	{
+		RENAMED_MATERIALS.put("GRASS_PATH", "DIRT_PATH"); // 1.17
+		RENAMED_MATERIALS.put("GRASS", "SHORT_GRASS"); // 1.20.3
+		RENAMED_MATERIALS.put("SCUTE", "TURTLE_SCUTE"); // 1.20.5
+	}
+	// Only JDK types are kept in the thread locals, so the plugin class loader doesn't get pinned by the server threads
+	private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[1024]);
+	private static final ThreadLocal<ItemStack[]> SINGLE_ITEM = ThreadLocal.withInitial(() -> new ItemStack[1]);
+
+	private final ItemStackSerializer nbtSerializer;
+
+	CompactItemStackSerializer(final @NotNull ItemStackSerializer nbtSerializer)
+	{
+		this.nbtSerializer = nbtSerializer;
+	}
+
+	@SuppressWarnings("deprecation")
+	private static int getDataVersion()
+	{
+		try
+		{ // Only available on 1.13.2 and newer
+			return Bukkit.getUnsafe().getDataVersion();
+		}
+		catch(Throwable ignored)
+		{
+			return 0;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	public @NotNull byte[] serialize(final @NotNull ItemStack[] items)
+	{
+		Output out = new Output(BUFFER.get());
+		Map<Material, Integer> materials = new HashMap<>();
+		int entries = 0;
+		for(ItemStack item : items)
+		{
+			if(!isEmpty(item)) entries++;
+		}
+		out.write(FORMAT_VERSION);
+		out.writeVarInt(DATA_VERSION);
+		out.writeVarInt(items.length);
+		out.writeVarInt(entries);
+		ItemStack[] single = SINGLE_ITEM.get();
+		int lastSlot = -1;
+		for(int slot = 0; slot < items.length; slot++)
+		{
+			ItemStack item = items[slot];
+			if(isEmpty(item)) continue;
+			out.writeVarInt(slot - lastSlot - 1);
+			lastSlot = slot;
+			if(item.hasItemMeta())
+			{
+				single[0] = item;
+				byte[] nbt = nbtSerializer.serialize(single);
+				single[0] = null;
+				out.writeVarInt((nbt.length << 1) | 1);
+				out.write(nbt, 0, nbt.length);
+			}
+			else
+			{
+				Integer ref = materials.get(item.getType());
+				if(ref == null)
+				{
+					ref = materials.size();
+					materials.put(item.getType(), ref);
+					out.writeVarInt(ref << 1);
+					byte[] name = item.getType().name().getBytes(StandardCharsets.UTF_8);
+					out.writeVarInt(name.length);
+					out.write(name, 0, name.length);
+				}
+				else out.writeVarInt(ref << 1);
+				out.writeVarInt(item.getAmount());
+				out.writeVarInt(zigZag(item.getDurability()));
+			}
+		}
+		if(out.buffer.length <= MAX_RETAINED_BUFFER_SIZE) BUFFER.set(out.buffer);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Deserializes an inventory. Items with a material that is not known by the server are left out.
+	 *
+	 * @param data The serialized inventory.
+	 * @param unknownMaterials Collects the names of the materials of the items that have been left out. null if they are not of interest.
+	 * @return The items.
+	 * @throws DataFormatException If the data is damaged.
+	 */
+	@SuppressWarnings("deprecation")
+	public @NotNull ItemStack[] deserialize(final @NotNull byte[] data, final @Nullable Collection<String> unknownMaterials) throws DataFormatException
+	{
+		Input in = new Input(data);
+		int version = in.read();
+		if(version < 1 || version > FORMAT_VERSION) throw new DataFormatException("Unknown compact format version " + version);
+		if(version >= 2) in.readVarInt(); // Data version, not needed as long as renamed materials can be mapped by name
+		int size = in.readVarInt(), entries = in.readVarInt();
+		if(size > MAX_INVENTORY_SIZE || entries > size) throw new DataFormatException("Invalid inventory size " + size + " with " + entries + " items");
+		ItemStack[] items = new ItemStack[size];
+		List<Material> materials = new ArrayList<>(); // Unknown materials are kept as null, so the following references still match
+		List<String> names = new ArrayList<>();
+		int slot = -1;
+		for(int i = 0; i < entries; i++)
+		{
+			slot += in.readVarInt() + 1;
+			if(slot >= size) throw new DataFormatException("Slot " + slot + " is outside of the inventory");
+			int header = in.readVarInt();
+			if((header & 1) == 1)
+			{
+				byte[] nbt = in.readBytes(header >>> 1);
+				try
+				{
+					ItemStack[] stacks = nbtSerializer.deserialize(nbt);
+					items[slot] = (stacks != null && stacks.length > 0) ? stacks[0] : null;
+				}
+				catch(RuntimeException e)
+				{ // Only this item is lost
+					if(unknownMaterials != null) unknownMaterials.add("NBT item (" + e.getMessage() + ")");
+				}
+			}
+			else
+			{
+				int ref = header >>> 1;
+				if(ref == materials.size())
+				{
+					String name = new String(in.readBytes(in.readVarInt()), StandardCharsets.UTF_8);
+					materials.add(getMaterial(name));
+					names.add(name);
+				}
+				else if(ref > materials.size()) throw new DataFormatException("Invalid material reference " + ref);
+				int amount = in.readVarInt();
+				short durability = (short) unZigZag(in.readVarInt());
+				Material material = materials.get(ref);
+				if(material == null)
+				{
+					if(unknownMaterials != null) unknownMaterials.add(names.get(ref));
+					continue;
+				}
+				items[slot] = (durability == 0) ? new ItemStack(material, amount) : new ItemStack(material, amount, durability);
+			}
+		}
+		return items;
+	}
+
+	private static boolean isEmpty(final @Nullable ItemStack item)
+	{
+		return item == null || item.getType() == Material.AIR || item.getAmount() <= 0;
+	}
+
+	private static @Nullable Material getMaterial(final @NotNull String name)
+	{
+		Material material = MATERIAL_CACHE.get(name);
+		if(material == null)
+		{
+			material = Material.getMaterial(name);
+			if(material == null && RENAMED_MATERIALS.containsKey(name)) material = Material.getMaterial(RENAMED_MATERIALS.get(name));
+			if(material == null) material = Material.matchMaterial(name); // Also finds legacy names on 1.13+
+			if(material != null) MATERIAL_CACHE.put(name, material);
+		}
+		return material;
+	}
+
+	private static int zigZag(final int value)
+	{
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unZigZag(final int value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static final class Output
+	{
+		private byte[] buffer;
+		private int position = 0;
+
+		Output(final byte[] buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		private void ensureCapacity(final int additional)
+		{
+			if(position + additional > buffer.length)
+			{
+				byte[] newBuffer = new byte[Math.max(buffer.length * 2, position + additional)];
+				System.arraycopy(buffer, 0, newBuffer, 0, position);
+				buffer = newBuffer;
+			}
+		}
+
+		void write(final int b)
+		{
+			ensureCapacity(1);
+			buffer[position++] = (byte) b;
+		}
+
+		void write(final byte[] data, final int offset, final int length)
+		{
+			ensureCapacity(length);
+			System.arraycopy(data, offset, buffer, position, length);
+			position += length;
+		}
+
+		void writeVarInt(int value)
+		{
+			ensureCapacity(5);
+			while((value & ~0x7F) != 0)
+			{
+				buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte) value;
+		}
+
+		byte[] toByteArray()
+		{
+			byte[] result = new byte[position];
+			System.arraycopy(buffer, 0, result, 0, position);
+			return result;
+		}
+	}
+
+	private static final class Input
+	{
+		private final byte[] data;
+		private int position = 0;
+
+		Input(final byte[] data)
+		{
+			this.data = data;
+		}
+
+		int read() throws DataFormatException
+		{
+			if(position >= data.length) throw new DataFormatException("Unexpected end of data");
+			return data[position++] & 0xFF;
+		}
+
+		int readVarInt() throws DataFormatException
+		{
+			int value = 0;
+			for(int shift = 0; shift < 35; shift += 7)
+			{
+				int b = read();
+				value |= (b & 0x7F) << shift;
+				if((b & 0x80) == 0) return value;
+			}
+			throw new DataFormatException("VarInt too long");
+		}
+
+		byte[] readBytes(final int length) throws DataFormatException
+		{
+			if(length < 0 || length > data.length - position) throw new DataFormatException("Invalid length " + length);
+			byte[] result = new byte[length];
+			System.arraycopy(data, position, result, 0, length);
+			position += length;
+			return result;
+		}
+	}
+}
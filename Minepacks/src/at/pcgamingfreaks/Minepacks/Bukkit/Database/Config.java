@@ -38,7 +38,7 @@
 
 public class Config extends Configuration implements DatabaseConnectionConfiguration
 {
-	private static final int CONFIG_VERSION = 32, UPGRADE_THRESHOLD = CONFIG_VERSION, PRE_V2_VERSION = 20;
+	private static final int CONFIG_VERSION = 33, UPGRADE_THRESHOLD = CONFIG_VERSION, PRE_V2_VERSION = 20;
 
 	public Config(JavaPlugin plugin)
 	{
@@ -140,6 +140,66 @@ public boolean getUseUUIDSeparators()
 		return getConfigE().getBoolean("Database.UseUUIDSeparators", false);
 	}
 
+	public boolean isCompressionEnabled()
+	{
+		return getConfigE().getBoolean("Database.Compression.Enabled", false);
+	}
+
+	public int getCompressionLevel()
+	{
+		return Math.min(9, Math.max(1, getConfigE().getInt("Database.Compression.Level", 3)));
+	}
+
+	public boolean isCompactSerializerEnabled()
+	{
+		return getConfigE().getBoolean("Database.CompactSerializer", false);
+	}
+
+	public boolean isWriteBehindEnabled()
+	{
+		return getConfigE().getBoolean("Database.WriteBehind.Enabled", true);
+	}
+
+	public long getWriteBehindFlushInterval()
+	{
+		return Math.max(1, getConfigE().getLong("Database.WriteBehind.FlushInterval", 5)) * 20L;
+	}
+
+	public int getWriteBehindMaxQueueSize()
+	{
+		return Math.max(1, getConfigE().getInt("Database.WriteBehind.MaxQueueSize", 100));
+	}
+
+	public int getMaxDatabaseConnections()
+	{
+		return Math.max(1, getConfigE().getInt("Database.SQL.MaxConnections", 2));
+	}
+
+	public long getShutdownTimeout()
+	{
+		return Math.max(1, getConfigE().getLong("Database.ShutdownTimeout", 30)) * 1000L;
+	}
+
+	public long getLogMaxSegmentSize()
+	{
+		return Math.max(1, getConfigE().getLong("Database.Log.MaxSegmentSize", 16)) * 1024L * 1024L;
+	}
+
+	public long getLogCompactionInterval()
+	{
+		return Math.max(1, getConfigE().getLong("Database.Log.CompactionInterval", 10)) * 60L * 20L;
+	}
+
+	public double getLogCompactionThreshold()
+	{
+		return Math.min(1.0, Math.max(0.0, getConfigE().getDouble("Database.Log.CompactionThreshold", 0.5)));
+	}
+
+	public boolean isLogMemoryMappedEnabled()
+	{
+		return getConfigE().getBoolean("Database.Log.MemoryMapped", false);
+	}
+
 	public String getUnCacheStrategie()
 	{
 		return getConfigE().getString("Database.Cache.UnCache.Strategie", "interval").toLowerCase(Locale.ENGLISH);
@@ -154,6 +214,31 @@ public long getUnCacheDelay()
 	{
 		return getConfigE().getLong("Database.Cache.UnCache.Delay", 600) * 20L;
 	}
+
+	public int getUnCacheMaxSize()
+	{
+		return Math.max(10, getConfigE().getInt("Database.Cache.UnCache.MaxSize", 1000));
+	}
+
+	public long getCacheMemoryBudget()
+	{
+		return Math.max(0, getConfigE().getLong("Database.Cache.MaxMemory", 0)) * 1024L * 1024L;
+	}
+
+	public boolean isPayloadInterningEnabled()
+	{
+		return getConfigE().getBoolean("Database.Cache.InternPayloads", false);
+	}
+
+	public boolean isOffHeapCacheEnabled()
+	{
+		return getConfigE().getBoolean("Database.Cache.OffHeap.Enabled", false);
+	}
+
+	public long getOffHeapCacheSize()
+	{
+		return Math.max(1, getConfigE().getLong("Database.Cache.OffHeap.MaxSize", 32)) * 1024L * 1024L;
+	}
 	//endregion
 
 	public String getBPTitleOther()
@@ -21,6 +21,8 @@
 import at.pcgamingfreaks.Database.ConnectionProvider.ConnectionProvider;
 import at.pcgamingfreaks.Minepacks.Bukkit.API.Callback;
 import at.pcgamingfreaks.Minepacks.Bukkit.Backpack;
+import at.pcgamingfreaks.Minepacks.Bukkit.BackpackSnapshot;
+import at.pcgamingfreaks.Minepacks.Bukkit.Database.Helper.DictionaryTrainer;
 import at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies.OnDisconnect;
 import at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies.UnCacheStrategie;
 import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
@@ -37,53 +39,163 @@
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 
 public abstract class Database implements Listener
 {
 	protected static final String START_UUID_UPDATE = "Start updating database to UUIDs ...", UUIDS_UPDATED = "Updated %d accounts to UUIDs.";
 	public static final String MESSAGE_UNKNOWN_DB_TYPE = ConsoleColor.RED + "Unknown database type \"%s\"!" + ConsoleColor.RESET;
+	private static final String DICTIONARY_FOLDER = "dictionaries", DICTIONARY_EXT = ".dict", DICTIONARY_ACTIVE_FILE = "active";
 
 	protected final Minepacks plugin;
 	protected final InventorySerializer itsSerializer;
 	protected final boolean onlineUUIDs, bungeeCordMode;
 	protected boolean useUUIDSeparators, asyncSave = true;
 	protected long maxAge;
+	protected final InFlightWrites inFlightWrites = new InFlightWrites();
+	private final long shutdownTimeout;
+	private volatile long shutdownDeadline = Long.MAX_VALUE;
 	private final Map<OfflinePlayer, Backpack> backpacks = new ConcurrentHashMap<>();
 	private final UnCacheStrategie unCacheStrategie;
+	private final OffHeapBackpackCache offHeapCache;
+	private final PayloadInterner payloadInterner;
+	private final long memoryBudget;
+	private final AtomicLong cacheWeight = new AtomicLong(), memoryBudgetEvictions = new AtomicLong();
+	private final AtomicBoolean memoryBudgetCheckScheduled = new AtomicBoolean();
+	private final Map<OfflinePlayer, CompletableFuture<Backpack>> loadingBackpacks = new ConcurrentHashMap<>();
+	private final AtomicLong sharedLoads = new AtomicLong();
+	protected final MainThreadQueue mainThreadExecutor;
+	private final ExecutorService saveExecutor;
+	private final Map<UUID, CompletableFuture<Void>> pendingSaves = new ConcurrentHashMap<>();
 	private final File backupFolder;
+	private final AtomicLong skippedSaves = new AtomicLong();
+	private final Object dictionaryLock = new Object();
 
 	public Database(Minepacks mp)
 	{
 		plugin = mp;
-		itsSerializer = new InventorySerializer(plugin.getLogger());
+		itsSerializer = new InventorySerializer(plugin.getLogger(), plugin.getConfiguration().isCompressionEnabled() ? plugin.getConfiguration().getCompressionLevel() : -1, plugin.getConfiguration().isCompactSerializerEnabled());
 		useUUIDSeparators = plugin.getConfiguration().getUseUUIDSeparators();
 		onlineUUIDs = plugin.getConfiguration().useOnlineUUIDs();
 		bungeeCordMode = plugin.getConfiguration().isBungeeCordModeEnabled();
 		maxAge = plugin.getConfiguration().getAutoCleanupMaxInactiveDays();
 		unCacheStrategie = bungeeCordMode ? new OnDisconnect(this) : UnCacheStrategie.getUnCacheStrategie(this);
+		// Other servers write to the database in BungeeCord mode, data kept in the cache would get outdated
+		offHeapCache = (!bungeeCordMode && plugin.getConfiguration().isOffHeapCacheEnabled()) ? new OffHeapBackpackCache(plugin.getConfiguration().getOffHeapCacheSize()) : null;
+		memoryBudget = plugin.getConfiguration().getCacheMemoryBudget();
+		payloadInterner = plugin.getConfiguration().isPayloadInterningEnabled() ? new PayloadInterner() : null;
+		mainThreadExecutor = new MainThreadQueue(plugin);
+		final AtomicInteger threadCount = new AtomicInteger();
+		saveExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)), runnable -> {
+			Thread thread = new Thread(runnable, "Minepacks-Serializer-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		shutdownTimeout = plugin.getConfiguration().getShutdownTimeout();
 		backupFolder = new File(this.plugin.getDataFolder(), "backups");
 		if(!backupFolder.exists() && !backupFolder.mkdirs()) mp.getLogger().info("Failed to create backups folder.");
 	}
 
 	public void init()
 	{
+		loadDictionaries();
 		plugin.getServer().getPluginManager().registerEvents(this, plugin);
 	}
 
 	public void close()
 	{
 		HandlerList.unregisterAll(this);
-		asyncSave = false;
-		backpacks.forEach((key, value) -> value.closeAll());
+		flush();
+		mainThreadExecutor.close();
 		backpacks.clear();
+		cacheWeight.set(0);
 		unCacheStrategie.close();
+		if(offHeapCache != null) offHeapCache.clear();
+	}
+
+	/**
+	 * Saves all cached backpacks before the database gets closed. The backpacks are serialized and written in parallel on the serializer threads,
+	 * the storage writes them directly on these threads because the scheduler can't be used while the plugin gets disabled.
+	 * Saves the storage has queued are written afterwards. Backpacks that have not been written once the shutdown timeout is reached get stored in the backups folder.
+	 */
+	private void flush()
+	{
+		final long deadline = System.currentTimeMillis() + shutdownTimeout;
+		shutdownDeadline = deadline;
+		asyncSave = false;
+		backpacks.forEach((key, value) -> value.closeAll());
+		saveExecutor.shutdown();
+		try
+		{
+			boolean serialized = saveExecutor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			writeQueuedSaves();
+			boolean written = inFlightWrites.await(deadline);
+			if(serialized && written) return;
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		int missed = 0;
+		for(Backpack backpack : backpacks.values())
+		{
+			CompletableFuture<Void> save = pendingSaves.get(backpack.getOwner().getUniqueId());
+			if(save != null && !save.isDone())
+			{
+				backup(backpack);
+				missed++;
+			}
+		}
+		missed += backupPendingWrites();
+		plugin.getLogger().warning("Timed out waiting for the backpacks to be saved! " + missed + " backpacks have been stored in the backups folder.");
+	}
+
+	/**
+	 * Gets the time that is left till the shutdown timeout is reached. Storages can use it to wait for their remaining operations once the backpacks have been flushed.
+	 *
+	 * @return The remaining time in milliseconds. 0 if the timeout has already been reached.
+	 */
+	protected long getRemainingShutdownTime()
+	{
+		return Math.max(0, shutdownDeadline - System.currentTimeMillis());
 	}
 
+	/**
+	 * Stores the writes that have not finished yet in the backups folder. They are no longer tracked afterwards, so they are only backed up once.
+	 *
+	 * @return The amount of backed up writes.
+	 */
+	protected int backupPendingWrites()
+	{
+		int count = 0;
+		for(InFlightWrites.Write write : inFlightWrites.takePending())
+		{
+			writeBackup(write.ownerName, write.ownerUUID, write.usedSerializer, write.data);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the saves the storage has queued (e.g. to write them in batches). Called while the database is closing, once the cached backpacks have been saved.
+	 * The writes need to be tracked in {@link #inFlightWrites}, so they are bound to the shutdown timeout and backed up if they don't finish in time.
+	 */
+	protected void writeQueuedSaves() {}
+
 	public static @Nullable Database getDatabase(Minepacks plugin)
 	{
 		try
@@ -115,6 +227,9 @@ public void close()
 				case "file":
 				case "files":
 					database = new Files(plugin); break;
+				case "log":
+				case "logfiles":
+					database = new LogFiles(plugin); break;
 				default: plugin.getLogger().warning(String.format(MESSAGE_UNKNOWN_DB_TYPE,  plugin.getConfiguration().getDatabaseType())); return null;
 			}
 			database.init();
@@ -130,7 +245,9 @@ public void close()
 
 	public void backup(@NotNull Backpack backpack)
 	{
-		writeBackup(backpack.getOwner().getName(), getPlayerFormattedUUID(backpack.getOwner()), itsSerializer.getUsedSerializer(), itsSerializer.serialize(backpack.getInventory()));
+		SerializedBackpack serialized = backpack.getStoredData();
+		if(serialized == null) serialized = itsSerializer.serialize(backpack.getInventory());
+		writeBackup(backpack.getOwner().getName(), getPlayerFormattedUUID(backpack.getOwner()), serialized.getVersion(), serialized.getData());
 	}
 
 	protected void writeBackup(@Nullable String userName, @NotNull String userIdentifier, final int usedSerializer, final @NotNull byte[] data)
@@ -150,6 +267,21 @@ protected void writeBackup(@Nullable String userName, @NotNull String userIdenti
 		}
 	}
 
+	/**
+	 * Stores a save that could not be written to the storage in the backups folder.
+	 * The checksum of the backpack gets reset, so its next save gets written even if the backpack has not changed again.
+	 *
+	 * @param backpack The backpack that could not be saved.
+	 * @param ownerUUID The formatted uuid of the owner.
+	 * @param usedSerializer The version of the serializer that has been used.
+	 * @param data The serialized inventory of the backpack.
+	 */
+	protected void backupFailedSave(final @NotNull Backpack backpack, final @NotNull String ownerUUID, final int usedSerializer, final @NotNull byte[] data)
+	{
+		backpack.setPersistedChecksum(-1);
+		writeBackup(backpack.getOwner().getName(), ownerUUID, usedSerializer, data);
+	}
+
 	public @Nullable ItemStack[] loadBackup(final String backupName)
 	{
 		File backup = new File(backupFolder, backupName + Files.EXT);
@@ -190,7 +322,76 @@ protected String getPlayerFormattedUUID(OfflinePlayer player)
 	 */
 	public @Nullable Backpack getBackpack(@Nullable OfflinePlayer player)
 	{
-		return (player == null) ? null : backpacks.get(player);
+		if(player == null) return null;
+		Backpack backpack = backpacks.get(player);
+		if(backpack != null) unCacheStrategie.onBackpackAccessed(backpack);
+		return backpack;
+	}
+
+	/**
+	 * Adds a backpack to the cache. Can be called from any thread.
+	 *
+	 * @param player The owner of the backpack.
+	 * @param backpack The backpack to be cached.
+	 * @return The cached backpack. If there already is a cached backpack for the player it is kept, so changes done to it don't get lost.
+	 */
+	private @NotNull Backpack cacheBackpack(final @NotNull OfflinePlayer player, final @NotNull Backpack backpack)
+	{
+		Backpack cached = backpacks.putIfAbsent(player, backpack);
+		if(cached != null) return cached;
+		backpack.setAccountedWeight(backpack.estimateWeight());
+		cacheWeight.addAndGet(backpack.getAccountedWeight());
+		mainThreadExecutor.executeOrDiscard(() -> {
+			if(backpacks.get(player) == backpack) unCacheStrategie.onBackpackLoaded(backpack);
+		});
+		checkMemoryBudget();
+		return backpack;
+	}
+
+	/**
+	 * Updates the estimated heap usage of a backpack. Needs to be called when the size of the data of the backpack has changed.
+	 *
+	 * @param backpack The backpack that has changed.
+	 */
+	public void updateWeight(final @NotNull Backpack backpack)
+	{
+		long weight = backpack.estimateWeight(), delta = weight - backpack.getAccountedWeight();
+		if(delta == 0) return;
+		backpack.setAccountedWeight(weight);
+		if(backpacks.get(backpack.getOwner()) == backpack)
+		{
+			cacheWeight.addAndGet(delta);
+			checkMemoryBudget();
+		}
+	}
+
+	private void checkMemoryBudget()
+	{
+		if(memoryBudget <= 0 || cacheWeight.get() <= memoryBudget || !memoryBudgetCheckScheduled.compareAndSet(false, true)) return;
+		mainThreadExecutor.executeOrDiscard(this::enforceMemoryBudget);
+	}
+
+	/**
+	 * Uncaches the largest backpacks of offline players till the estimated heap usage of the cache is below the memory budget again.
+	 */
+	private void enforceMemoryBudget()
+	{
+		memoryBudgetCheckScheduled.set(false);
+		if(cacheWeight.get() <= memoryBudget) return;
+		long target = memoryBudget * 9 / 10; // Free a little more than needed, so it doesn't have to run again for the next loaded backpack
+		List<Backpack> candidates = new ArrayList<>();
+		for(Backpack backpack : backpacks.values())
+		{
+			if(!backpack.getOwner().isOnline() && !backpack.isOpen()) candidates.add(backpack);
+		}
+		candidates.sort((a, b) -> Long.compare(b.getAccountedWeight(), a.getAccountedWeight()));
+		for(Backpack backpack : candidates)
+		{
+			if(cacheWeight.get() <= target) break;
+			backpack.save();
+			unloadBackpack(backpack);
+			memoryBudgetEvictions.incrementAndGet();
+		}
 	}
 
 	public void getBackpack(final OfflinePlayer player, final Callback<at.pcgamingfreaks.Minepacks.Bukkit.API.Backpack> callback, final boolean createNewOnFail)
@@ -199,38 +400,181 @@ public void getBackpack(final OfflinePlayer player, final Callback<at.pcgamingfr
 		{
 			return;
 		}
-		Backpack lbp = backpacks.get(player);
-		if(lbp == null)
-		{
-			loadBackpack(player, new Callback<Backpack>()
+		getBackpackAsync(player, createNewOnFail, true).whenComplete((backpack, exception) -> {
+			try
 			{
-				@Override
-				public void onResult(Backpack backpack)
-				{
-					backpacks.put(player, backpack);
-					callback.onResult(backpack);
-				}
+				if(backpack != null) callback.onResult(backpack);
+				else callback.onFail();
+			}
+			catch(Exception e)
+			{
+				plugin.getLogger().log(Level.SEVERE, "Failed to deliver the backpack of " + player.getName() + "!", e);
+			}
+		});
+	}
 
-				@Override
-				public void onFail()
+	/**
+	 * Gets the backpack of a player, it gets loaded if it is not cached.
+	 * If the backpack is cached the returned future is already completed, so dependent actions run directly on the calling thread.
+	 *
+	 * @param player The owner of the backpack.
+	 * @param createNewOnFail Creates a new backpack if there is no stored backpack for the player.
+	 * @param completeOnMainThread True to complete the future on the main thread. False to complete it on the thread that has loaded the backpack, which avoids waiting for the next tick.
+	 * @return A future that completes with the backpack. null if there is no backpack (and createNewOnFail is false) or it could not be loaded.
+	 */
+	public @NotNull CompletableFuture<Backpack> getBackpackAsync(final @NotNull OfflinePlayer player, final boolean createNewOnFail, final boolean completeOnMainThread)
+	{
+		if(player.getClass().getName().contains("NPC")) return CompletableFuture.completedFuture(null);
+		Backpack cached = backpacks.get(player);
+		if(cached != null) unCacheStrategie.onBackpackAccessed(cached);
+		else cached = takeFromOffHeapCache(player);
+		if(cached != null) return CompletableFuture.completedFuture(cached);
+		CompletableFuture<Backpack> future = loadBackpackOnce(player);
+		if(createNewOnFail)
+		{ // New backpacks create an inventory, this has to happen on the main thread
+			future = future.thenCompose(backpack -> (backpack != null) ? CompletableFuture.completedFuture(backpack) : CompletableFuture.supplyAsync(() -> getOrCreateBackpack(player), mainThreadExecutor));
+		}
+		if(completeOnMainThread) future = future.thenApplyAsync(backpack -> backpack, mainThreadExecutor);
+		return future;
+	}
+
+	/**
+	 * Loads a backpack into the cache. Concurrent requests for the same player share one load, so all of them get the same backpack instance.
+	 *
+	 * @param player The owner of the backpack.
+	 * @return A future that completes on the loading thread with the cached backpack. null if there is no stored backpack or it could not be loaded.
+	 */
+	private @NotNull CompletableFuture<Backpack> loadBackpackOnce(final @NotNull OfflinePlayer player)
+	{
+		final CompletableFuture<Backpack> future = new CompletableFuture<>();
+		CompletableFuture<Backpack> inFlight = loadingBackpacks.putIfAbsent(player, future);
+		if(inFlight != null)
+		{
+			sharedLoads.incrementAndGet();
+			return inFlight;
+		}
+		CompletableFuture<Backpack> load;
+		try
+		{
+			// Loading while a save is still serialized or written would load outdated data
+			load = getPendingSave(player).thenCompose(ignored -> loadBackpack(player));
+		}
+		catch(RuntimeException e)
+		{ // Make sure following requests don't wait for a load that never finishes
+			plugin.getLogger().log(Level.SEVERE, "Failed to load the backpack of " + player.getName() + "!", e);
+			load = CompletableFuture.completedFuture(null);
+		}
+		load.whenComplete((backpack, exception) -> {
+			if(exception != null) plugin.getLogger().log(Level.SEVERE, "Failed to load the backpack of " + player.getName() + "!", exception);
+			completeLoad(player, future, backpack);
+		});
+		return future;
+	}
+
+	private void completeLoad(final @NotNull OfflinePlayer player, final @NotNull CompletableFuture<Backpack> future, final @Nullable Backpack loaded)
+	{
+		// If the backpack has been created while loading (e.g. by an API call) the created one is kept
+		Backpack cached = (loaded != null) ? cacheBackpack(player, loaded) : null;
+		loadingBackpacks.remove(player, future);
+		future.complete(cached);
+	}
+
+	/**
+	 * Gets the backpacks of multiple players. Cached backpacks are used directly, all other backpacks get loaded together.
+	 *
+	 * @param players The owners of the backpacks.
+	 * @param createNewOnFail Creates new backpacks for players without a stored backpack.
+	 * @param completeOnMainThread True to complete the future on the main thread. False to complete it on the thread that has loaded the backpacks.
+	 * @return A future that completes with the backpacks. Players without a backpack (or whose backpack could not be loaded) are missing in the map.
+	 */
+	public @NotNull CompletableFuture<Map<OfflinePlayer, Backpack>> getBackpacksAsync(final @NotNull Collection<? extends OfflinePlayer> players, final boolean createNewOnFail, final boolean completeOnMainThread)
+	{
+		final Map<OfflinePlayer, CompletableFuture<Backpack>> requested = new HashMap<>(), toLoad = new HashMap<>();
+		for(OfflinePlayer player : players)
+		{
+			if(player == null || requested.containsKey(player) || player.getClass().getName().contains("NPC")) continue;
+			Backpack cached = backpacks.get(player);
+			if(cached != null) unCacheStrategie.onBackpackAccessed(cached);
+			else cached = takeFromOffHeapCache(player);
+			if(cached != null)
+			{
+				requested.put(player, CompletableFuture.completedFuture(cached));
+				continue;
+			}
+			CompletableFuture<Backpack> future = new CompletableFuture<>();
+			CompletableFuture<Backpack> inFlight = loadingBackpacks.putIfAbsent(player, future);
+			if(inFlight != null)
+			{
+				sharedLoads.incrementAndGet();
+				future = inFlight;
+			}
+			else toLoad.put(player, future);
+			requested.put(player, future);
+		}
+		if(!toLoad.isEmpty())
+		{
+			CompletableFuture<Map<OfflinePlayer, Backpack>> load;
+			try
+			{
+				final List<OfflinePlayer> loadPlayers = new ArrayList<>(toLoad.keySet());
+				load = CompletableFuture.allOf(loadPlayers.stream().map(this::getPendingSave).toArray(CompletableFuture[]::new)).thenCompose(ignored -> loadBackpacks(loadPlayers));
+			}
+			catch(RuntimeException e)
+			{ // Make sure following requests don't wait for loads that never finish
+				plugin.getLogger().log(Level.SEVERE, "Failed to load " + toLoad.size() + " backpacks!", e);
+				load = CompletableFuture.completedFuture(Collections.emptyMap());
+			}
+			load.whenComplete((loaded, exception) -> {
+				if(exception != null) plugin.getLogger().log(Level.SEVERE, "Failed to load " + toLoad.size() + " backpacks!", exception);
+				toLoad.forEach((player, future) -> completeLoad(player, future, (loaded != null) ? loaded.get(player) : null));
+			});
+		}
+		CompletableFuture<Map<OfflinePlayer, Backpack>> result = CompletableFuture.allOf(requested.values().toArray(new CompletableFuture[0])).thenApply(ignored -> {
+			Map<OfflinePlayer, Backpack> loaded = new HashMap<>();
+			requested.forEach((player, future) -> {
+				Backpack backpack = future.join();
+				if(backpack != null) loaded.put(player, backpack);
+			});
+			return loaded;
+		});
+		if(createNewOnFail)
+		{ // New backpacks create an inventory, this has to happen on the main thread
+			result = result.thenCompose(loaded -> (loaded.size() == requested.size()) ? CompletableFuture.completedFuture(loaded) : CompletableFuture.supplyAsync(() -> {
+				for(OfflinePlayer player : requested.keySet())
 				{
-					if(createNewOnFail)
-					{
-						Backpack backpack = new Backpack(player);
-						backpacks.put(player, backpack);
-						callback.onResult(backpack);
-					}
-					else
-					{
-						callback.onFail();
-					}
+					if(!loaded.containsKey(player)) loaded.put(player, getOrCreateBackpack(player));
 				}
-			});
+				return loaded;
+			}, mainThreadExecutor));
 		}
-		else
-		{
-			callback.onResult(lbp);
+		if(completeOnMainThread) result = result.thenApplyAsync(loaded -> loaded, mainThreadExecutor);
+		return result;
+	}
+
+	/**
+	 * Takes a read only snapshot of the backpack of a player. Backpacks that are not cached are loaded and deserialized on an async thread without entering the cache.
+	 *
+	 * @param player The owner of the backpack.
+	 * @return A future that completes with the snapshot. null if there is no backpack for the player or it could not be loaded.
+	 */
+	public @NotNull CompletableFuture<BackpackSnapshot> getSnapshot(final @NotNull OfflinePlayer player)
+	{
+		final Backpack cached = backpacks.get(player);
+		if(cached == null) return getPendingSave(player).thenCompose(ignored -> loadSnapshot(player));
+		final SerializedBackpack stored = cached.getStoredData();
+		if(stored != null)
+		{ // Not deserialized yet, no need to touch the backpack
+			return CompletableFuture.supplyAsync(() -> makeSnapshot(player, stored.getData(), stored.getVersion(), -1), task -> plugin.getServer().getScheduler().runTaskAsynchronously(plugin, task));
 		}
+		// The inventory can only be read safely on the main thread
+		return CompletableFuture.supplyAsync(() -> new BackpackSnapshot(player, copyContents(cached), -1), mainThreadExecutor);
+	}
+
+	private @NotNull Backpack getOrCreateBackpack(final @NotNull OfflinePlayer player)
+	{
+		Backpack backpack = backpacks.get(player);
+		if(backpack == null) backpack = cacheBackpack(player, new Backpack(player));
+		return backpack;
 	}
 
 	public void getBackpack(final OfflinePlayer player, final Callback<at.pcgamingfreaks.Minepacks.Bukkit.API.Backpack> callback)
@@ -238,30 +582,70 @@ public void getBackpack(final OfflinePlayer player, final Callback<at.pcgamingfr
 		getBackpack(player, callback, true);
 	}
 
+	/**
+	 * Called when the last player viewing a backpack has closed it.
+	 *
+	 * @param backpack The backpack that has been closed.
+	 */
+	public void onBackpackClosed(final @NotNull Backpack backpack)
+	{
+		if(backpacks.get(backpack.getOwner()) == backpack) unCacheStrategie.onBackpackClosed(backpack);
+	}
+
 	public void unloadBackpack(Backpack backpack)
 	{
-		backpacks.remove(backpack.getOwner());
+		Backpack removed = backpacks.remove(backpack.getOwner());
+		if(removed != null)
+		{
+			cacheWeight.addAndGet(-removed.getAccountedWeight());
+			unCacheStrategie.onBackpackUnloaded(removed);
+		}
+		// A backpack that has already been replaced in the cache might be outdated
+		if(offHeapCache != null && removed == backpack) moveToOffHeapCache(backpack);
 	}
 
-	public void asyncLoadBackpack(final OfflinePlayer player)
+	private void moveToOffHeapCache(final @NotNull Backpack backpack)
 	{
-		if(player != null && backpacks.get(player) == null)
+		if(saveExecutor.isShutdown()) return;
+		final SerializedBackpack stored = backpack.getStoredData();
+		final ItemStack[] items;
+		if(stored == null)
 		{
-			loadBackpack(player, new Callback<Backpack>()
+			if(backpack.hasChanged()) return; // Not saved yet
+			items = copyContents(backpack);
+		}
+		else items = null;
+		final UUID owner = backpack.getOwner().getUniqueId();
+		final CompletableFuture<Void> previous = pendingSaves.get(owner);
+		// Serialized after the pending saves of the backpack, so the checksum can be compared with the one of the data written last
+		((previous != null) ? previous.exceptionally(ignored -> null) : CompletableFuture.<Void>completedFuture(null)).thenRunAsync(() -> {
+			SerializedBackpack data = stored;
+			if(data == null)
 			{
-				@Override
-				public void onResult(Backpack backpack)
-				{
-					backpacks.put(player, backpack);
-				}
-
-				@Override
-				public void onFail()
-				{
-					backpacks.put(player, new Backpack(player));
-				}
+				data = itsSerializer.serialize(items);
+				if(data.getChecksum() != backpack.getPersistedChecksum()) return; // Only cache what is also in the database
+			}
+			final OffHeapBackpackCache.Entry entry = OffHeapBackpackCache.makeEntry(data, backpack.getOwnerID());
+			mainThreadExecutor.executeOrDiscard(() -> {
+				// The backpack might have been loaded again in the meantime, the cached data would be outdated once it gets changed
+				if(!backpacks.containsKey(backpack.getOwner()) && !saveExecutor.isShutdown()) offHeapCache.put(owner, entry);
 			});
-		}
+		}, saveExecutor);
+	}
+
+	private @Nullable Backpack takeFromOffHeapCache(final @NotNull OfflinePlayer player)
+	{
+		if(offHeapCache == null) return null;
+		OffHeapBackpackCache.Entry entry = offHeapCache.take(player.getUniqueId());
+		if(entry == null) return null;
+		SerializedBackpack stored = entry.getStored();
+		if(stored == null) return null;
+		return cacheBackpack(player, new Backpack(player, intern(stored), entry.getOwnerID()));
+	}
+
+	public void asyncLoadBackpack(final OfflinePlayer player)
+	{
+		if(player != null && backpacks.get(player) == null) getBackpackAsync(player, true, false);
 	}
 
 	@EventHandler
@@ -279,11 +663,383 @@ public void updatePlayerAndLoadBackpack(Player player)
 
 	public abstract void updatePlayer(Player player);
 
-	public abstract void saveBackpack(Backpack backpack);
+	/**
+	 * Saves a backpack. The write is skipped if the backpack has not changed since it has been loaded or saved the last time.
+	 *
+	 * @param backpack The backpack to be saved.
+	 */
+	public void saveBackpack(final @NotNull Backpack backpack)
+	{
+		if(!backpack.isLoaded())
+		{ // The inventory has never been used, the stored data is still up to date
+			skippedSaves.incrementAndGet();
+			return;
+		}
+		// Only the items are copied on the calling thread, serializing and compressing them happens on the serializer threads
+		final ItemStack[] items = copyContents(backpack);
+		final UUID owner = backpack.getOwner().getUniqueId();
+		if(saveExecutor.isShutdown())
+		{ // The database is being closed, save it directly
+			writeBackpack(backpack, items);
+			return;
+		}
+		// Saves of the same backpack are chained, so they can't overtake each other. A failed save must not stop the following ones
+		final CompletableFuture<Void> save = pendingSaves.compute(owner, (key, previous) -> ((previous != null) ? previous.exceptionally(ignored -> null) : CompletableFuture.<Void>completedFuture(null))
+				.thenRunAsync(() -> writeBackpack(backpack, items), saveExecutor));
+		save.whenComplete((ignored, exception) -> {
+			pendingSaves.remove(owner, save);
+			if(exception != null)
+			{ // The executor rejects the save if the database got closed in the meantime
+				plugin.getLogger().warning("Failed to save the backpack of " + backpack.getOwner().getName() + "! Error: " + exception.getMessage());
+				try
+				{
+					SerializedBackpack serialized = itsSerializer.serialize(items);
+					backupFailedSave(backpack, getPlayerFormattedUUID(backpack.getOwner()), serialized.getVersion(), serialized.getData());
+				}
+				catch(RuntimeException e)
+				{
+					plugin.getLogger().log(Level.SEVERE, "Failed to backup the backpack of " + backpack.getOwner().getName() + "!", e);
+				}
+			}
+		});
+	}
+
+	private void writeBackpack(final @NotNull Backpack backpack, final @NotNull ItemStack[] items)
+	{
+		try
+		{
+			final SerializedBackpack serialized = itsSerializer.serialize(items);
+			backpack.setPayloadSize(InventorySerializer.getUncompressedSize(serialized));
+			updateWeight(backpack);
+			final byte[] data = serialized.getData();
+			final int usedSerializer = serialized.getVersion();
+			final long checksum = SerializedBackpack.checksum(data, usedSerializer);
+			if(backpack.getPersistedChecksum() == checksum)
+			{ // Nothing has changed (e.g. items have been moved and moved back), no need to write the same data again
+				skippedSaves.incrementAndGet();
+				return;
+			}
+			// Set before the write, so following saves of the same data get skipped. The storage resets it if the write fails (see backupFailedSave)
+			backpack.setPersistedChecksum(checksum);
+			saveBackpack(backpack, data, usedSerializer);
+		}
+		catch(RuntimeException e)
+		{
+			backpack.setPersistedChecksum(-1);
+			plugin.getLogger().log(Level.SEVERE, "Failed to save the backpack of " + backpack.getOwner().getName() + "!", e);
+		}
+	}
+
+	/**
+	 * Copies the items of a backpack, so they can be serialized on another thread. Needs to be called on the main thread.
+	 *
+	 * @param backpack The backpack.
+	 * @return The copied items.
+	 */
+	private static @NotNull ItemStack[] copyContents(final @NotNull Backpack backpack)
+	{
+		// The stacks returned by the inventory are mirrors of the stacks in the inventory and change with it
+		ItemStack[] items = backpack.getInventory().getContents();
+		for(int i = 0; i < items.length; i++)
+		{
+			if(items[i] != null) items[i] = items[i].clone();
+		}
+		return items;
+	}
+
+	/**
+	 * Gets a future that completes once the saves of a backpack that are still being serialized or written have been stored.
+	 *
+	 * @param player The owner of the backpack.
+	 * @return The future. Already completed if there are no pending saves.
+	 */
+	private @NotNull CompletableFuture<Void> getPendingSave(final @NotNull OfflinePlayer player)
+	{
+		final String uuid = getPlayerFormattedUUID(player);
+		CompletableFuture<Void> save = pendingSaves.get(player.getUniqueId());
+		// Serialized saves are handed to the storage, which might still be writing them
+		return (save != null) ? save.thenCompose(ignored -> inFlightWrites.whenWritten(uuid)) : inFlightWrites.whenWritten(uuid);
+	}
+
+	/**
+	 * Writes a serialized backpack to the storage. Writes that fail have to be stored with {@link #backupFailedSave(Backpack, String, int, byte[])}.
+	 *
+	 * @param backpack The backpack that is saved.
+	 * @param data The serialized inventory of the backpack.
+	 * @param usedSerializer The version of the serializer that has been used.
+	 */
+	protected abstract void saveBackpack(final @NotNull Backpack backpack, final @NotNull byte[] data, final int usedSerializer);
+
+	/**
+	 * Creates a snapshot from the stored data of a backpack. The data gets deserialized directly.
+	 *
+	 * @param player The owner of the backpack.
+	 * @param data The stored data. null if there is no stored backpack.
+	 * @param usedSerializer The version of the serializer the data has been created with.
+	 * @param lastUpdate The time (in ms) the backpack has been saved the last time. -1 if it is not known.
+	 * @return The snapshot. null if there is no stored data or it could not be deserialized.
+	 */
+	protected @Nullable BackpackSnapshot makeSnapshot(final @NotNull OfflinePlayer player, final @Nullable byte[] data, final int usedSerializer, final long lastUpdate)
+	{
+		if(data == null) return null;
+		SerializedBackpack stored = new SerializedBackpack(data, usedSerializer);
+		loadMissingDictionary(stored);
+		ItemStack[] items = loadItems(player, stored);
+		return (items != null) ? new BackpackSnapshot(player, items, lastUpdate) : null;
+	}
+
+	/**
+	 * Creates a backpack from its stored data.
+	 *
+	 * @param player The owner of the backpack.
+	 * @param data The stored data. null if there is no stored backpack.
+	 * @param usedSerializer The version of the serializer the data has been created with.
+	 * @param ownerID The database id of the owner.
+	 * @return The backpack. null if there is no stored data. The data only gets deserialized once the backpack is used.
+	 */
+	protected @Nullable Backpack makeBackpack(final @NotNull OfflinePlayer player, final @Nullable byte[] data, final int usedSerializer, final int ownerID)
+	{
+		if(data == null) return null;
+		SerializedBackpack stored = new SerializedBackpack(data, usedSerializer);
+		loadMissingDictionary(stored); // The data gets deserialized later on the main thread, which must not wait for the storage
+		return new Backpack(player, intern(stored), ownerID);
+	}
+
+	/**
+	 * Reloads the compression dictionaries if the data has been compressed with a dictionary that is not known yet (e.g. trained by another server sharing the database).
+	 * Reads from the storage, only call it on the loading threads.
+	 *
+	 * @param stored The loaded data.
+	 */
+	private void loadMissingDictionary(final @NotNull SerializedBackpack stored)
+	{
+		if(!itsSerializer.isDictionaryMissing(stored.getData(), stored.getVersion())) return;
+		synchronized(dictionaryLock)
+		{ // Backpacks loaded at the same time don't need to reload them again
+			if(itsSerializer.isDictionaryMissing(stored.getData(), stored.getVersion())) loadDictionaries();
+		}
+	}
+
+	private @NotNull SerializedBackpack intern(final @NotNull SerializedBackpack stored)
+	{
+		return (payloadInterner != null) ? payloadInterner.intern(stored) : stored;
+	}
+
+	/**
+	 * Deserializes the stored data of a backpack. Doesn't read from the storage, so it can be used on the main thread.
+	 * Missing compression dictionaries are loaded together with the backpack, data compressed with a dictionary that is still unknown fails to load.
+	 *
+	 * @param owner The owner of the backpack.
+	 * @param stored The stored data.
+	 * @return The items of the backpack. null if the data could not be deserialized.
+	 *         The data gets written to the backups folder if it could not be deserialized or some of the items could not be loaded.
+	 */
+	public @Nullable ItemStack[] loadItems(final @NotNull OfflinePlayer owner, final @NotNull SerializedBackpack stored)
+	{
+		List<String> lostItems = new ArrayList<>(0);
+		ItemStack[] items = itsSerializer.deserialize(stored.getData(), stored.getVersion(), lostItems);
+		if(items == null)
+		{
+			plugin.getLogger().warning(ConsoleColor.RED + "Failed to load the backpack of " + owner.getName() + "!" + ConsoleColor.RESET);
+			writeBackup(owner.getName(), getPlayerFormattedUUID(owner), stored.getVersion(), stored.getData());
+		}
+		else if(!lostItems.isEmpty())
+		{ // The original data would be overwritten by the next save
+			plugin.getLogger().warning(ConsoleColor.RED + "Failed to load " + lostItems.size() + " items of the backpack of " + owner.getName() + ": " + String.join(", ", lostItems) + ConsoleColor.RESET);
+			writeBackup(owner.getName(), getPlayerFormattedUUID(owner), stored.getVersion(), stored.getData());
+		}
+		return items;
+	}
+
+	/**
+	 * Checks if data has been stored in an older format than the one used for new data.
+	 *
+	 * @param usedSerializer The version of the serializer the data has been created with.
+	 * @return True if the data should be converted.
+	 */
+	public boolean isOutdatedFormat(final int usedSerializer)
+	{
+		return usedSerializer != itsSerializer.getUsedSerializer();
+	}
 
 	public void syncCooldown(Player player, long time) {}
 
 	public void getCooldown(final Player player, final Callback<Long> callback) {}
 
-	protected abstract void loadBackpack(final OfflinePlayer player, final Callback<Backpack> callback);
+	/**
+	 * Loads the stored backpack of a player. The backpack does not get cached.
+	 *
+	 * @param player The owner of the backpack.
+	 * @return A future that completes on the loading thread with the not yet deserialized backpack. null if there is no stored backpack or it could not be loaded.
+	 */
+	protected abstract @NotNull CompletableFuture<Backpack> loadBackpack(final @NotNull OfflinePlayer player);
+
+	/**
+	 * Loads the stored backpack of a player as snapshot. Neither a backpack nor an inventory gets created.
+	 *
+	 * @param player The owner of the backpack.
+	 * @return A future that completes on the loading thread with the snapshot. null if there is no stored backpack or it could not be loaded.
+	 */
+	protected abstract @NotNull CompletableFuture<BackpackSnapshot> loadSnapshot(final @NotNull OfflinePlayer player);
+
+	/**
+	 * Loads the stored backpacks of multiple players. The backpacks do not get cached.
+	 * Loads every backpack on its own, databases that can fetch multiple backpacks at once should override it.
+	 *
+	 * @param players The owners of the backpacks.
+	 * @return A future that completes on a loading thread with the not yet deserialized backpacks. Players without a stored backpack are missing in the map.
+	 */
+	protected @NotNull CompletableFuture<Map<OfflinePlayer, Backpack>> loadBackpacks(final @NotNull Collection<OfflinePlayer> players)
+	{
+		final Map<OfflinePlayer, Backpack> loaded = new ConcurrentHashMap<>();
+		final List<CompletableFuture<Void>> loads = new ArrayList<>(players.size());
+		for(OfflinePlayer player : players)
+		{
+			loads.add(loadBackpack(player).thenAccept(backpack -> {
+				if(backpack != null) loaded.put(player, backpack);
+			}));
+		}
+		return CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).thenApply(ignored -> loaded);
+	}
+
+	/**
+	 * Gets samples of the stored backpacks. Used to train the compression dictionary. Blocks till the data is loaded, don't call it from the main thread!
+	 *
+	 * @param count The max amount of backpacks to be returned.
+	 * @return The stored backpacks.
+	 */
+	public abstract @NotNull List<SerializedBackpack> sampleBackpacks(final int count);
+
+	//region Compression dictionary
+	protected void loadDictionaries()
+	{
+		try
+		{
+			for(byte[] dictionary : readDictionaries())
+			{
+				itsSerializer.addDictionary(dictionary);
+			}
+			Integer active = readActiveDictionary();
+			if(active != null && !itsSerializer.setActiveDictionary(active)) plugin.getLogger().warning("The active compression dictionary " + Integer.toHexString(active) + " is missing!");
+		}
+		catch(Exception e)
+		{
+			plugin.getLogger().warning(ConsoleColor.RED + "Failed to load the compression dictionaries! Error: " + e.getMessage() + ConsoleColor.RESET);
+		}
+	}
+
+	/**
+	 * Trains a new compression dictionary from the stored backpacks and uses it for all future saves. Don't call it from the main thread!
+	 *
+	 * @param sampleCount The max amount of backpacks used to train the dictionary.
+	 * @return The id of the new dictionary. null if there is not enough data to train a dictionary.
+	 */
+	public @Nullable Integer trainDictionary(final int sampleCount) throws Exception
+	{
+		List<byte[]> samples = new ArrayList<>();
+		for(SerializedBackpack stored : sampleBackpacks(sampleCount))
+		{
+			byte[] raw = itsSerializer.getUncompressedData(stored);
+			if(raw != null) samples.add(raw);
+		}
+		if(samples.size() < 10) return null;
+		byte[] dictionary = DictionaryTrainer.train(samples, DictionaryTrainer.MAX_DICTIONARY_SIZE);
+		if(dictionary.length == 0) return null;
+		int id = InventorySerializer.getDictionaryId(dictionary);
+		writeDictionary(id, dictionary, true);
+		itsSerializer.addDictionary(dictionary);
+		itsSerializer.setActiveDictionary(id);
+		return id;
+	}
+
+	public @Nullable Integer getActiveDictionary()
+	{
+		return itsSerializer.getActiveDictionary();
+	}
+
+	public @NotNull Map<Integer, byte[]> getDictionaries()
+	{
+		return itsSerializer.getDictionaries();
+	}
+
+	/**
+	 * Stores the compression dictionaries of another database. Used for migrations.
+	 *
+	 * @param dictionaries The dictionaries to be stored.
+	 * @param active The id of the active dictionary.
+	 */
+	public void importDictionaries(final @NotNull Map<Integer, byte[]> dictionaries, final @Nullable Integer active) throws Exception
+	{
+		for(Map.Entry<Integer, byte[]> entry : dictionaries.entrySet())
+		{
+			writeDictionary(entry.getKey(), entry.getValue(), entry.getKey().equals(active));
+		}
+	}
+
+	protected @NotNull Collection<byte[]> readDictionaries() throws Exception
+	{
+		List<byte[]> dictionaries = new ArrayList<>();
+		File[] files = new File(plugin.getDataFolder(), DICTIONARY_FOLDER).listFiles((dir, name) -> name.endsWith(DICTIONARY_EXT));
+		if(files == null) return dictionaries;
+		for(File file : files)
+		{
+			dictionaries.add(java.nio.file.Files.readAllBytes(file.toPath()));
+		}
+		return dictionaries;
+	}
+
+	protected @Nullable Integer readActiveDictionary() throws Exception
+	{
+		File file = new File(new File(plugin.getDataFolder(), DICTIONARY_FOLDER), DICTIONARY_ACTIVE_FILE);
+		if(!file.exists()) return null;
+		return Integer.parseUnsignedInt(new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim(), 16);
+	}
+
+	protected void writeDictionary(final int id, final @NotNull byte[] dictionary, final boolean active) throws Exception
+	{
+		writeDictionaryFile(plugin.getDataFolder(), id, dictionary, active);
+	}
+
+	/**
+	 * Writes a compression dictionary for the file based storage types.
+	 *
+	 * @param dataFolder The data folder of the plugin.
+	 * @param id The id of the dictionary.
+	 * @param dictionary The dictionary.
+	 * @param active True if the dictionary should be used for new data.
+	 */
+	public static void writeDictionaryFile(final @NotNull File dataFolder, final int id, final @NotNull byte[] dictionary, final boolean active) throws IOException
+	{
+		File folder = new File(dataFolder, DICTIONARY_FOLDER);
+		if(!folder.exists() && !folder.mkdirs()) throw new IOException("Failed to create folder " + folder.getAbsolutePath());
+		java.nio.file.Files.write(new File(folder, Integer.toHexString(id) + DICTIONARY_EXT).toPath(), dictionary);
+		if(active) java.nio.file.Files.write(new File(folder, DICTIONARY_ACTIVE_FILE).toPath(), Integer.toHexString(id).getBytes(StandardCharsets.UTF_8));
+	}
+	//endregion
+
+	/**
+	 * Collects statistics about the database and its cache. Used for the debug output.
+	 *
+	 * @param statistics The map the statistics should be added to.
+	 */
+	public void collectStatistics(final @NotNull Map<String, Object> statistics)
+	{
+		statistics.put("Type", getClass().getSimpleName());
+		statistics.put("Cached backpacks", backpacks.size());
+		statistics.put("Cached backpacks (not deserialized)", backpacks.values().stream().filter(backpack -> !backpack.isLoaded()).count());
+		statistics.put("Skipped saves (unchanged)", skippedSaves.get());
+		statistics.put("Saves being serialized", pendingSaves.size());
+		statistics.put("Writes in progress", inFlightWrites.size());
+		mainThreadExecutor.collectStatistics(statistics);
+		statistics.put("Loads in progress", loadingBackpacks.size());
+		statistics.put("Shared loads", sharedLoads.get());
+		statistics.put("Cache weight (estimated bytes)", (memoryBudget > 0) ? cacheWeight.get() + " / " + memoryBudget : cacheWeight.get());
+		statistics.put("Memory budget evictions", memoryBudgetEvictions.get());
+		StringBuilder largest = new StringBuilder();
+		backpacks.values().stream().sorted((a, b) -> Long.compare(b.getAccountedWeight(), a.getAccountedWeight())).limit(5)
+				.forEach(backpack -> largest.append(largest.length() > 0 ? ", " : "").append(backpack.getOwner().getName()).append(" (").append(backpack.getAccountedWeight()).append(')'));
+		statistics.put("Largest cached backpacks", largest.toString());
+		if(payloadInterner != null) payloadInterner.collectStatistics(statistics);
+		if(offHeapCache != null) offHeapCache.collectStatistics(statistics);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,184 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes the database operations of the SQL databases. The amount of threads matches the size of the connection pool, so tasks never wait for a connection.
+ * Queued loads are executed before queued saves, so players don't have to wait for their backpacks when a lot of backpacks get saved.
+ * Loads and saves of the same backpack are not queued before the previous writes of the backpack have finished (see {@link InFlightWrites}), so they keep their order.
+ * The queue is bounded to {@link #QUEUE_SIZE_PER_CONNECTION} tasks per connection: threads other than the main thread get blocked while it is full,
+ * the main thread runs the task itself instead of adding it to the full queue (it never waits for a slot, but it has to wait for the database).
+ * On Java 21+ the tasks run on virtual threads.
+ */
+final class DatabaseExecutor
+{
+	private static final int QUEUE_SIZE_PER_CONNECTION = 32;
+	private static final ThreadLocal<Boolean> IS_WORKER = new ThreadLocal<>();
+
+	public enum Priority { LOAD, SAVE, BACKGROUND }
+
+	private final ThreadPoolExecutor executor;
+	private final Semaphore queueSlots;
+	private final AtomicLong sequence = new AtomicLong(), throttled = new AtomicLong(), callerRuns = new AtomicLong();
+	private final boolean virtualThreads;
+
+	DatabaseExecutor(final int threads)
+	{
+		queueSlots = new Semaphore(threads * QUEUE_SIZE_PER_CONNECTION);
+		ThreadFactory factory = getVirtualThreadFactory();
+		virtualThreads = factory != null;
+		if(factory == null)
+		{
+			final AtomicInteger threadCount = new AtomicInteger();
+			factory = runnable -> {
+				Thread thread = new Thread(runnable, "Minepacks-DB-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), factory);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private static @Nullable ThreadFactory getVirtualThreadFactory()
+	{
+		try
+		{ // Thread.ofVirtual().name("Minepacks-DB-", 1).factory(), only available on Java 21+
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "Minepacks-DB-", 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		}
+		catch(ReflectiveOperationException | RuntimeException ignored)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Queues a database operation.
+	 *
+	 * @param priority The priority of the operation. Operations with the same priority are executed in the order they have been queued.
+	 * @param task The operation.
+	 * @throws RejectedExecutionException If the executor has already been shut down.
+	 */
+	public void execute(final @NotNull Priority priority, final @NotNull Runnable task)
+	{
+		boolean hasSlot = queueSlots.tryAcquire();
+		if(!hasSlot && IS_WORKER.get() == null)
+		{
+			if(Bukkit.isPrimaryThread())
+			{ // Waiting for a slot could take a lot longer than running the task, the queue is only that long if the database is overloaded anyway
+				if(executor.isShutdown()) throw new RejectedExecutionException("The database executor has been shut down");
+				callerRuns.incrementAndGet();
+				runTask(task);
+				return;
+			}
+			// Slow down producers till there is space in the queue again. Blocking a worker could dead lock the executor
+			throttled.incrementAndGet();
+			queueSlots.acquireUninterruptibly();
+			hasSlot = true;
+		}
+		try
+		{
+			executor.execute(new Task(priority, sequence.getAndIncrement(), task, hasSlot));
+		}
+		catch(RejectedExecutionException e)
+		{
+			if(hasSlot) queueSlots.release();
+			throw e;
+		}
+	}
+
+	private static void runTask(final @NotNull Runnable task)
+	{
+		try
+		{
+			task.run();
+		}
+		catch(RuntimeException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+
+	public boolean awaitTermination(final long timeout, final @NotNull TimeUnit unit) throws InterruptedException
+	{
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	void collectStatistics(final @NotNull Map<String, Object> statistics)
+	{
+		statistics.put("Database executor threads", executor.getPoolSize() + " / " + executor.getMaximumPoolSize() + (virtualThreads ? " (virtual)" : ""));
+		statistics.put("Database executor queue", executor.getQueue().size());
+		statistics.put("Database executor throttled submits", throttled.get());
+		statistics.put("Database executor tasks run on the main thread", callerRuns.get());
+	}
+
+	private final class Task implements Runnable, Comparable<Task>
+	{
+		private final Priority priority;
+		private final long sequence;
+		private final Runnable task;
+		private final boolean hasSlot;
+
+		Task(final @NotNull Priority priority, final long sequence, final @NotNull Runnable task, final boolean hasSlot)
+		{
+			this.priority = priority;
+			this.sequence = sequence;
+			this.task = task;
+			this.hasSlot = hasSlot;
+		}
+
+		@Override
+		public void run()
+		{
+			IS_WORKER.set(Boolean.TRUE);
+			try
+			{
+				runTask(task);
+			}
+			finally
+			{
+				IS_WORKER.remove();
+				if(hasSlot) queueSlots.release();
+			}
+		}
+
+		@Override
+		public int compareTo(final @NotNull Task other)
+		{
+			int result = priority.compareTo(other.priority);
+			return (result != 0) ? result : Long.compare(sequence, other.sequence);
+		}
+	}
+}
@@ -17,8 +17,8 @@
 
 package at.pcgamingfreaks.Minepacks.Bukkit.Database;
 
-import at.pcgamingfreaks.Minepacks.Bukkit.API.Callback;
 import at.pcgamingfreaks.Minepacks.Bukkit.Backpack;
+import at.pcgamingfreaks.Minepacks.Bukkit.BackpackSnapshot;
 import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
 import at.pcgamingfreaks.UUIDConverter;
 
@@ -29,8 +29,23 @@
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 public class Files extends Database
@@ -38,12 +53,21 @@ public class Files extends Database
 	public static final String EXT = ".backpack", EXT_REGEX = "\\.backpack", FOLDER_NAME = "backpacks";
 
 	private final File saveFolder;
+	private final FilesManifest manifest;
+	private final ExecutorService ioExecutor;
 	
 	public Files(Minepacks plugin)
 	{
 		super(plugin);
+		final AtomicInteger threadCount = new AtomicInteger();
+		ioExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)), runnable -> {
+			Thread thread = new Thread(runnable, "Minepacks-IO-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
 		maxAge *= 24 * 3600000L;
 		saveFolder = new File(this.plugin.getDataFolder(), FOLDER_NAME);
+		manifest = new FilesManifest(saveFolder, plugin.getLogger());
 		if(!saveFolder.exists())
 		{
 			if(!saveFolder.mkdirs())
@@ -51,23 +75,105 @@ public Files(Minepacks plugin)
 				plugin.getLogger().warning("Failed to create save folder (" + saveFolder.getAbsolutePath() + ").");
 			}
 		}
+		else if(manifest.load(useUUIDSeparators))
+		{
+			cleanupFromManifest();
+		}
 		else
 		{
 			checkFiles();
 		}
 	}
 
+	@Override
+	public void close()
+	{
+		super.close();
+		ioExecutor.shutdown();
+		manifest.save(useUUIDSeparators);
+	}
+
 	@Override
 	public void updatePlayer(Player player)
 	{
 		// Files are stored with the users name or the uuid, there is no reason to update anything
 	}
 
+	/**
+	 * Gets the file a backpack is stored in. The files are sharded into two levels of folders based on the first four characters of the uuid, to keep the folders small.
+	 *
+	 * @param saveFolder The backpacks folder.
+	 * @param formattedUUID The formatted uuid of the owner of the backpack.
+	 * @return The file for the backpack.
+	 */
+	public static @NotNull File getBackpackFile(final @NotNull File saveFolder, final @NotNull String formattedUUID)
+	{
+		return new File(new File(new File(saveFolder, formattedUUID.substring(0, 2)), formattedUUID.substring(2, 4)), formattedUUID + EXT);
+	}
+
+	/**
+	 * Lists all backpack files in a backpacks folder, including files that are still stored in the old flat layout.
+	 *
+	 * @param saveFolder The backpacks folder.
+	 * @return All the backpack files.
+	 */
+	public static @NotNull List<File> listBackpackFiles(final @NotNull File saveFolder)
+	{
+		List<File> backpackFiles = new ArrayList<>();
+		File[] flatFiles = saveFolder.listFiles((dir, name) -> name.endsWith(EXT));
+		if(flatFiles != null) backpackFiles.addAll(Arrays.asList(flatFiles));
+		File[] shards = saveFolder.listFiles(File::isDirectory);
+		if(shards == null) return backpackFiles;
+		for(File shard : shards)
+		{
+			File[] subShards = shard.listFiles(File::isDirectory);
+			if(subShards == null) continue;
+			for(File subShard : subShards)
+			{
+				File[] files = subShard.listFiles((dir, name) -> name.endsWith(EXT));
+				if(files != null) backpackFiles.addAll(Arrays.asList(files));
+			}
+		}
+		return backpackFiles;
+	}
+
+	/**
+	 * Forces the backpacks folder to be checked and re-indexed on the next start. Must be called when backpack files are changed without the {@link Files} database.
+	 *
+	 * @param saveFolder The backpacks folder.
+	 */
+	public static void invalidateManifest(final @NotNull File saveFolder)
+	{
+		FilesManifest.invalidate(saveFolder);
+	}
+
+	private void cleanupFromManifest()
+	{
+		if(maxAge <= 0) return;
+		long now = System.currentTimeMillis();
+		for(Map.Entry<String, FilesManifest.Entry> entry : manifest.getEntries().entrySet())
+		{
+			if(now - entry.getValue().lastModified <= maxAge) continue;
+			File file = getBackpackFile(saveFolder, entry.getKey());
+			long lastModified = file.lastModified();
+			if(lastModified == 0)
+			{ // File no longer exists
+				manifest.remove(entry.getKey());
+			}
+			else if(now - lastModified > maxAge) // Check if the file is older then x days
+			{
+				if(file.delete()) manifest.remove(entry.getKey());
+				else plugin.getLogger().warning("Failed to delete file (" + file.getAbsolutePath() + ").");
+			}
+			else manifest.update(entry.getKey(), file.length(), lastModified);
+		}
+	}
+
 	private void checkFiles()
 	{
-		File[] allFiles = saveFolder.listFiles((dir, name) -> name.endsWith(EXT));
-		if(allFiles == null) return;
-		for (File file : allFiles)
+		List<File> allFiles = listBackpackFiles(saveFolder);
+		if(allFiles.size() > 1000) plugin.getLogger().info("Checking " + allFiles.size() + " backpack files ...");
+		for(File file : allFiles)
 		{
 			if(maxAge > 0 && System.currentTimeMillis() - file.lastModified() > maxAge) // Check if the file is older then x days
 			{
@@ -77,88 +183,165 @@ private void checkFiles()
 				}
 				continue; // We don't have to check if the file name is correct cause we have the deleted the file
 			}
-			int len = file.getName().length() - EXT.length();
-			if(len <= 16) // It's a player name
+			String id = file.getName().substring(0, file.getName().length() - EXT.length());
+			if(id.length() <= 16) // It's a player name
 			{
-				if(!file.renameTo(new File(saveFolder, UUIDConverter.getUUIDFromName(file.getName().substring(0, len), onlineUUIDs, useUUIDSeparators) + EXT)))
+				String uuid = UUIDConverter.getUUIDFromName(id, onlineUUIDs, useUUIDSeparators);
+				if(uuid == null)
 				{
-					plugin.getLogger().warning("Failed to rename file (" + file.getAbsolutePath() + ").");
+					plugin.getLogger().warning("Failed to get the UUID of " + id + ", the file (" + file.getAbsolutePath() + ") has not been converted.");
+					continue;
 				}
+				id = uuid;
+			}
+			else if(id.contains("-")) // It's an UUID
+			{
+				if(!useUUIDSeparators) id = id.replaceAll("-", "");
 			}
-			else // It's an UUID
+			else if(useUUIDSeparators)
 			{
-				if(file.getName().contains("-"))
+				id = id.replaceAll("(\\w{8})(\\w{4})(\\w{4})(\\w{4})(\\w{12})", "$1-$2-$3-$4-$5");
+			}
+			File target = getBackpackFile(saveFolder, id);
+			if(!target.equals(file)) // Wrong name or still in the old flat layout
+			{
+				if(!target.getParentFile().exists() && !target.getParentFile().mkdirs())
 				{
-					if(!useUUIDSeparators)
-					{
-						if(!file.renameTo(new File(saveFolder, file.getName().replaceAll("-", ""))))
-						{
-							plugin.getLogger().warning("Failed to rename file (" + file.getAbsolutePath() + ").");
-						}
-					}
+					plugin.getLogger().warning("Failed to create folder (" + target.getParentFile().getAbsolutePath() + ").");
 				}
-				else
+				if(!file.renameTo(target))
 				{
-					if(useUUIDSeparators)
-					{
-						if(!file.renameTo(new File(saveFolder, file.getName().replaceAll("(\\w{8})(\\w{4})(\\w{4})(\\w{4})(\\w{12})" + EXT_REGEX, "$1-$2-$3-$4-$5" + EXT))))
-						{
-							plugin.getLogger().warning("Failed to rename file (" + file.getAbsolutePath() + ").");
-						}
-					}
+					plugin.getLogger().warning("Failed to rename file (" + file.getAbsolutePath() + ").");
+					continue;
 				}
 			}
+			manifest.update(id, target.length(), target.lastModified());
 		}
 	}
 	
-	private String getFileName(OfflinePlayer player)
+	private File getFile(OfflinePlayer player)
 	{
-		return getPlayerFormattedUUID(player) + EXT;
+		return getBackpackFile(saveFolder, getPlayerFormattedUUID(player));
 	}
 	
 	// DB Functions
 	@Override
-	public void saveBackpack(Backpack backpack)
+	protected void saveBackpack(final @NotNull Backpack backpack, final @NotNull byte[] data, final int usedSerializer)
 	{
-		File save = new File(saveFolder, getFileName(backpack.getOwner()));
-		try(FileOutputStream fos = new FileOutputStream(save))
+		String id = getPlayerFormattedUUID(backpack.getOwner());
+		File save = getBackpackFile(saveFolder, id);
+		if(!save.getParentFile().exists() && !save.getParentFile().mkdirs())
 		{
-			fos.write(itsSerializer.getUsedSerializer());
-			fos.write(itsSerializer.serialize(backpack.getInventory()));
-			fos.flush();
+			plugin.getLogger().warning("Failed to create folder (" + save.getParentFile().getAbsolutePath() + ").");
+		}
+		// The data is written to a temporary file that replaces the backpack file once it is complete,
+		// so loads running at the same time and crashes while writing never see a partially written file
+		Path temp = null;
+		try
+		{
+			temp = java.nio.file.Files.createTempFile(save.getParentFile().toPath(), id, ".tmp");
+			try(FileOutputStream fos = new FileOutputStream(temp.toFile()))
+			{
+				fos.write(usedSerializer);
+				fos.write(data);
+				fos.flush();
+				fos.getFD().sync();
+			}
+			try
+			{
+				java.nio.file.Files.move(temp, save.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch(AtomicMoveNotSupportedException ignored)
+			{
+				java.nio.file.Files.move(temp, save.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			manifest.update(id, data.length + 1, System.currentTimeMillis());
 		}
 		catch(Exception e)
 		{
 			e.printStackTrace();
+			if(temp != null)
+			{
+				//noinspection ResultOfMethodCallIgnored
+				temp.toFile().delete();
+			}
+			backupFailedSave(backpack, id, usedSerializer, data);
 		}
 	}
 
 	@Override
-	protected void loadBackpack(final OfflinePlayer player, final Callback<Backpack> callback)
-	{ //TODO this needs to be done async!
-		File save = new File(saveFolder, getFileName(player));
-		ItemStack[] itemStacks = readFile(itsSerializer, save, plugin.getLogger());
-		if(itemStacks != null)
+	protected @NotNull CompletableFuture<Backpack> loadBackpack(final @NotNull OfflinePlayer player)
+	{
+		final File save = getFile(player);
+		final CompletableFuture<Backpack> future = new CompletableFuture<>();
+		try
 		{
-			callback.onResult(new Backpack(player, itemStacks, -1));
+			ioExecutor.execute(() -> {
+				SerializedBackpack stored = readFile(save, plugin.getLogger());
+				future.complete((stored != null) ? makeBackpack(player, stored.getData(), stored.getVersion(), -1) : null);
+			});
 		}
-		else
+		catch(RejectedExecutionException ignored)
+		{ // The database is already closed
+			future.complete(null);
+		}
+		return future;
+	}
+
+	@Override
+	protected @NotNull CompletableFuture<BackpackSnapshot> loadSnapshot(final @NotNull OfflinePlayer player)
+	{
+		final File save = getFile(player);
+		final CompletableFuture<BackpackSnapshot> future = new CompletableFuture<>();
+		try
 		{
-			callback.onFail();
+			ioExecutor.execute(() -> {
+				SerializedBackpack stored = readFile(save, plugin.getLogger());
+				future.complete((stored != null) ? makeSnapshot(player, stored.getData(), stored.getVersion(), save.lastModified()) : null);
+			});
+		}
+		catch(RejectedExecutionException ignored)
+		{ // The database is already closed
+			future.complete(null);
 		}
+		return future;
+	}
+
+	@Override
+	public @NotNull List<SerializedBackpack> sampleBackpacks(final int count)
+	{
+		List<File> files = listBackpackFiles(saveFolder);
+		Collections.shuffle(files);
+		List<SerializedBackpack> samples = new ArrayList<>(Math.min(count, files.size()));
+		for(File file : files)
+		{
+			if(samples.size() >= count) break;
+			SerializedBackpack stored = readFile(file, plugin.getLogger());
+			if(stored != null) samples.add(stored);
+		}
+		return samples;
 	}
 
 	protected static @Nullable ItemStack[] readFile(@NotNull InventorySerializer itsSerializer, @NotNull File file, @NotNull Logger logger)
+	{
+		SerializedBackpack stored = readFile(file, logger);
+		return (stored != null) ? itsSerializer.deserialize(stored.getData(), stored.getVersion()) : null;
+	}
+
+	protected static @Nullable SerializedBackpack readFile(@NotNull File file, @NotNull Logger logger)
 	{
 		if(file.exists())
 		{
-			try(FileInputStream fis = new FileInputStream(file))
+			try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
 			{
-				int version = fis.read();
-				byte[] out = new byte[(int) (file.length() - 1)];
-				int readCount = fis.read(out);
-				if(file.length() - 1 != readCount) logger.warning("Problem reading file, read " + readCount + " of " + (file.length() - 1) + " bytes.");
-				return itsSerializer.deserialize(out, version);
+				long size = channel.size();
+				if(size < 1) return null;
+				ByteBuffer version = ByteBuffer.allocate(1), data = ByteBuffer.allocate((int) (size - 1));
+				ByteBuffer[] buffers = { version, data };
+				//noinspection StatementWithEmptyBody
+				while(data.hasRemaining() && channel.read(buffers) >= 0); // Scattering read, version byte and payload are read with the same call
+				if(data.hasRemaining()) logger.warning("Problem reading file, read " + data.position() + " of " + (size - 1) + " bytes.");
+				return new SerializedBackpack(data.array(), version.get(0) & 0xFF);
 			}
 			catch(Exception e)
 			{
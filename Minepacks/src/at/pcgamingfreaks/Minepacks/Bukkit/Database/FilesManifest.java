@@ -0,0 +1,151 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Index of all the backpack files stored by the {@link Files} database, with their size and last modification time.
+ * It allows to start up without listing the whole backpacks folder.
+ * The manifest is removed from the disk once loaded and only written again on a clean shutdown, so a crashed server will rebuild it from the files.
+ */
+class FilesManifest
+{
+	static final String FILE_NAME = "manifest.dat";
+	private static final int MAGIC = 0x4D504D46, VERSION = 1; // MAGIC = "MPMF"
+
+	private final File file;
+	private final Logger logger;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	FilesManifest(final @NotNull File saveFolder, final @NotNull Logger logger)
+	{
+		this.file = new File(saveFolder, FILE_NAME);
+		this.logger = logger;
+	}
+
+	/**
+	 * Loads the manifest from the disk.
+	 *
+	 * @param useUUIDSeparators The current uuid format. The manifest will be discarded if it was written with another format.
+	 * @return True if the manifest has been loaded. False if it has to be rebuilt.
+	 */
+	boolean load(final boolean useUUIDSeparators)
+	{
+		entries.clear();
+		if(!file.exists()) return false;
+		boolean loaded = false;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if(in.readInt() == MAGIC && in.readInt() == VERSION && in.readBoolean() == useUUIDSeparators)
+			{
+				int count = in.readInt();
+				for(int i = 0; i < count; i++)
+				{
+					String id = in.readUTF();
+					entries.put(id, new Entry(in.readLong(), in.readLong()));
+				}
+				loaded = true;
+			}
+		}
+		catch(IOException e)
+		{
+			logger.warning("Failed to read backpack manifest, it will be rebuilt. Error: " + e.getMessage());
+			entries.clear();
+		}
+		if(!file.delete()) logger.warning("Failed to delete backpack manifest (" + file.getAbsolutePath() + ").");
+		return loaded;
+	}
+
+	void save(final boolean useUUIDSeparators)
+	{
+		File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(useUUIDSeparators);
+			Map<String, Entry> snapshot = new HashMap<>(entries);
+			out.writeInt(snapshot.size());
+			for(Map.Entry<String, Entry> entry : snapshot.entrySet())
+			{
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().size);
+				out.writeLong(entry.getValue().lastModified);
+			}
+		}
+		catch(IOException e)
+		{
+			logger.warning("Failed to write backpack manifest! Error: " + e.getMessage());
+			return;
+		}
+		try
+		{
+			java.nio.file.Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e)
+		{
+			logger.warning("Failed to write backpack manifest! Error: " + e.getMessage());
+		}
+	}
+
+	void update(final @NotNull String id, final long size, final long lastModified)
+	{
+		entries.put(id, new Entry(size, lastModified));
+	}
+
+	void remove(final @NotNull String id)
+	{
+		entries.remove(id);
+	}
+
+	@NotNull Map<String, Entry> getEntries()
+	{
+		return entries;
+	}
+
+	/**
+	 * Removes the manifest of a backpacks folder, forcing a rebuild on the next start. Needed if the files got changed from the outside (e.g. migration).
+	 *
+	 * @param saveFolder The backpacks folder.
+	 */
+	static void invalidate(final @NotNull File saveFolder)
+	{
+		File manifest = new File(saveFolder, FILE_NAME);
+		//noinspection ResultOfMethodCallIgnored
+		manifest.delete();
+	}
+
+	static final class Entry
+	{
+		final long size, lastModified;
+
+		Entry(final long size, final long lastModified)
+		{
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database.Helper;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+/**
+ * Builds a preset dictionary for deflate from sample data.
+ * The samples are split into fixed size segments, segments that occur in many samples get selected. The most common segments are placed at the end of the dictionary,
+ * because deflate can reference them with the shortest distances.
+ */
+public final class DictionaryTrainer
+{
+	public static final int MAX_DICTIONARY_SIZE = 32 * 1024; // The deflate window size, everything in front of it can't be used
+	private static final int SEGMENT_LENGTH = 32, STEP = 8, MIN_OCCURRENCES = 2;
+
+	private DictionaryTrainer() {}
+
+	private static final class Candidate
+	{
+		final int sample, offset;
+		int count = 0;
+
+		Candidate(final int sample, final int offset)
+		{
+			this.sample = sample;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Trains a dictionary.
+	 *
+	 * @param samples The data to train the dictionary with.
+	 * @param maxSize The max size of the dictionary.
+	 * @return The dictionary. An empty array if the samples don't have enough in common.
+	 */
+	public static @NotNull byte[] train(final @NotNull List<byte[]> samples, final int maxSize)
+	{
+		Map<Long, Candidate> candidates = new HashMap<>();
+		Set<Long> seen = new HashSet<>();
+		for(int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++)
+		{
+			byte[] sample = samples.get(sampleIndex);
+			seen.clear();
+			for(int offset = 0; offset + SEGMENT_LENGTH <= sample.length; offset += STEP)
+			{
+				long hash = hash(sample, offset);
+				if(!seen.add(hash)) continue; // Only count every segment once per sample
+				final int s = sampleIndex, o = offset;
+				candidates.computeIfAbsent(hash, key -> new Candidate(s, o)).count++;
+			}
+		}
+		List<Candidate> sorted = new ArrayList<>();
+		for(Candidate candidate : candidates.values())
+		{
+			if(candidate.count >= MIN_OCCURRENCES) sorted.add(candidate);
+		}
+		sorted.sort((a, b) -> Integer.compare(b.count, a.count));
+
+		// Select the most common segments, segments overlapping an already selected one are mostly redundant
+		List<byte[]> selected = new ArrayList<>();
+		Map<Integer, TreeSet<Integer>> selectedOffsets = new HashMap<>();
+		int size = 0;
+		for(Candidate candidate : sorted)
+		{
+			if(size + SEGMENT_LENGTH > maxSize) break;
+			TreeSet<Integer> offsets = selectedOffsets.computeIfAbsent(candidate.sample, key -> new TreeSet<>());
+			Integer before = offsets.floor(candidate.offset), after = offsets.ceiling(candidate.offset);
+			if((before != null && candidate.offset - before < SEGMENT_LENGTH) || (after != null && after - candidate.offset < SEGMENT_LENGTH)) continue;
+			offsets.add(candidate.offset);
+			selected.add(Arrays.copyOfRange(samples.get(candidate.sample), candidate.offset, candidate.offset + SEGMENT_LENGTH));
+			size += SEGMENT_LENGTH;
+		}
+
+		ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+		for(int i = selected.size() - 1; i >= 0; i--)
+		{
+			dictionary.write(selected.get(i), 0, SEGMENT_LENGTH);
+		}
+		return dictionary.toByteArray();
+	}
+
+	private static long hash(final @NotNull byte[] data, final int offset)
+	{ // FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for(int i = offset; i < offset + SEGMENT_LENGTH; i++)
+		{
+			hash ^= data[i] & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the writes that have been handed to another thread but have not finished yet.
+ * Closing the database waits for them and stores the ones that didn't finish in time in the backups folder.
+ * Loads wait for the writes of their backpack, so they never read data that is about to be overwritten.
+ */
+final class InFlightWrites
+{
+	private final Map<Long, Write> writes = new ConcurrentHashMap<>();
+	private final Map<String, CompletableFuture<Void>> owners = new ConcurrentHashMap<>();
+	private final AtomicLong nextId = new AtomicLong();
+
+	public long begin(final @Nullable String ownerName, final @NotNull String ownerUUID, final int usedSerializer, final @NotNull byte[] data)
+	{
+		long id = nextId.incrementAndGet();
+		Write write = new Write(ownerName, ownerUUID, usedSerializer, data);
+		writes.put(id, write);
+		owners.merge(ownerUUID, write.done, CompletableFuture::allOf);
+		return id;
+	}
+
+	public void end(final long id)
+	{
+		remove(id);
+		if(writes.isEmpty())
+		{
+			synchronized(this)
+			{
+				notifyAll();
+			}
+		}
+	}
+
+	private @Nullable Write remove(final long id)
+	{
+		Write write = writes.remove(id);
+		if(write != null)
+		{
+			write.done.complete(null);
+			owners.computeIfPresent(write.ownerUUID, (key, done) -> done.isDone() ? null : done);
+		}
+		return write;
+	}
+
+	/**
+	 * Waits till all writes have finished.
+	 *
+	 * @param deadline The time (System.currentTimeMillis()) till which it should wait.
+	 * @return True if all writes have finished, false if the deadline has been reached.
+	 */
+	public synchronized boolean await(final long deadline) throws InterruptedException
+	{
+		while(!writes.isEmpty())
+		{
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0) return false;
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Gets a future that completes once the writes of a backpack that have been started so far have finished.
+	 *
+	 * @param ownerUUID The formatted uuid of the owner of the backpack.
+	 * @return The future. Already completed if there are no writes for the backpack in progress.
+	 */
+	public @NotNull CompletableFuture<Void> whenWritten(final @NotNull String ownerUUID)
+	{
+		CompletableFuture<Void> done = owners.get(ownerUUID);
+		return (done != null) ? done : CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Removes the writes that have not finished yet, they are no longer waited for. Used once the writes have been given up on, so they can be backed up exactly once.
+	 *
+	 * @return The removed writes.
+	 */
+	public @NotNull Collection<Write> takePending()
+	{
+		List<Write> pending = new ArrayList<>();
+		for(Long id : new ArrayList<>(writes.keySet()))
+		{
+			Write write = remove(id);
+			if(write != null) pending.add(write);
+		}
+		return pending;
+	}
+
+	public int size()
+	{
+		return writes.size();
+	}
+
+	static final class Write
+	{
+		final String ownerName, ownerUUID;
+		final int usedSerializer;
+		final byte[] data;
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		private Write(final @Nullable String ownerName, final @NotNull String ownerUUID, final int usedSerializer, final @NotNull byte[] data)
+		{
+			this.ownerName = ownerName;
+			this.ownerUUID = ownerUUID;
+			this.usedSerializer = usedSerializer;
+			this.data = data;
+		}
+	}
+}
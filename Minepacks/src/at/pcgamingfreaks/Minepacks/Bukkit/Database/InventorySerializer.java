@@ -23,52 +23,168 @@
 
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import lombok.Getter;
-
+import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
 import java.util.logging.Logger;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class InventorySerializer
 {
 	@SuppressWarnings("deprecation")
 	private static final ItemStackSerializer BUKKIT_ITEM_STACK_SERIALIZER = ItemStackSerializer.makeBukkitItemStackSerializer();
+	private static final int MAX_UNCOMPRESSED_SIZE = 64 * 1024 * 1024;
 
 	private final Logger logger;
 	private final ItemStackSerializer serializer;
-	@Getter private final int usedSerializer;
-	
+	private final CompactItemStackSerializer compactSerializer;
+	private final int baseSerializer, compressionLevel;
+	private final boolean useCompact;
+	private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+	private volatile Integer activeDictionary = null;
+
 	public InventorySerializer(Logger logger)
+	{
+		this(logger, -1, false);
+	}
+
+	/**
+	 * @param logger The logger used for warnings.
+	 * @param compressionLevel The deflate level used for new data. -1 to store the data uncompressed.
+	 * @param compact True to store new data with the compact serializer.
+	 */
+	public InventorySerializer(Logger logger, int compressionLevel, boolean compact)
+	{
+		this(logger, makeNBTSerializer(logger), compressionLevel, compact);
+	}
+
+	/**
+	 * @param logger The logger used for warnings.
+	 * @param nbtSerializer The NBT serializer. null if it does not support the Minecraft version of the server.
+	 * @param compressionLevel The deflate level used for new data. -1 to store the data uncompressed.
+	 * @param compact True to store new data with the compact serializer.
+	 */
+	InventorySerializer(Logger logger, @Nullable ItemStackSerializer nbtSerializer, int compressionLevel, boolean compact)
 	{
 		this.logger = logger;
-		ItemStackSerializer serializer = null;
+		ItemStackSerializer serializer = nbtSerializer;
 		int usedSerializer = 2;
+		if(serializer == null)
+		{
+			logger.severe("NBTItemStackSerializer does not support your Minecraft version!\nFalling back to BukkitItemStackSerializer! This most likely is wrong!");
+			usedSerializer = 0;
+			serializer = BUKKIT_ITEM_STACK_SERIALIZER;
+		}
+		this.serializer = serializer;
+		this.baseSerializer = usedSerializer;
+		this.compressionLevel = compressionLevel;
+		this.compactSerializer = (usedSerializer == 2) ? new CompactItemStackSerializer(serializer) : null;
+		this.useCompact = compact && compactSerializer != null;
+	}
+
+	private static @Nullable ItemStackSerializer makeNBTSerializer(Logger logger)
+	{
 		try
 		{
 			if(ItemStackSerializer.isNBTItemStackSerializerAvailable())
 			{
-				serializer = ItemStackSerializer.makeNBTItemStackSerializer(logger);
+				return ItemStackSerializer.makeNBTItemStackSerializer(logger);
 			}
 		}
 		catch(Exception e)
 		{
 			e.printStackTrace();
 		}
-		if(serializer == null)
+		return null;
+	}
+
+	private boolean isCompressing()
+	{
+		return baseSerializer == 2 && compressionLevel > 0;
+	}
+
+	/**
+	 * Gets the version of the serializer that is used for new data.
+	 *
+	 * @return 0 = Bukkit, 2 = NBT, 3 = deflate compressed NBT, 4 = deflate compressed NBT with a preset dictionary,
+	 *         5 = compact, 6 = deflate compressed compact, 7 = deflate compressed compact with a preset dictionary
+	 */
+	public int getUsedSerializer()
+	{
+		if(!isCompressing()) return getRawSerializer();
+		return getCompressedSerializer(activeDictionary != null);
+	}
+
+	private int getRawSerializer()
+	{
+		return useCompact ? 5 : baseSerializer;
+	}
+
+	private int getCompressedSerializer(boolean withDictionary)
+	{
+		if(useCompact) return withDictionary ? 7 : 6;
+		return withDictionary ? 4 : 3;
+	}
+
+	private static int getRawVersion(final int usedSerializer)
+	{
+		switch(usedSerializer)
 		{
-			logger.severe("NBTItemStackSerializer does not support your Minecraft version!\nFalling back to BukkitItemStackSerializer! This most likely is wrong!");
-			usedSerializer = 0;
-			serializer = BUKKIT_ITEM_STACK_SERIALIZER;
+			case 3: case 4: return 2;
+			case 6: case 7: return 5;
+			default: return usedSerializer;
 		}
-		this.serializer = serializer;
-		this.usedSerializer = usedSerializer;
 	}
-	
-	public byte[] serialize(Inventory inv)
+
+	private byte[] serializeRaw(final @NotNull ItemStack[] items)
+	{
+		return useCompact ? compactSerializer.serialize(items) : serializer.serialize(items);
+	}
+
+	public @NotNull SerializedBackpack serialize(Inventory inv)
+	{
+		return serialize(inv.getContents());
+	}
+
+	/**
+	 * Serializes items. Can be used from any thread, as long as the items are not changed while they are serialized.
+	 *
+	 * @param items The items to be serialized.
+	 * @return The serialized items.
+	 */
+	public @NotNull SerializedBackpack serialize(final @NotNull ItemStack[] items)
 	{
-		return serializer.serialize(inv.getContents());
+		byte[] data = serializeRaw(items);
+		if(!isCompressing()) return new SerializedBackpack(data, getRawSerializer());
+		Integer dictionaryId = activeDictionary;
+		byte[] dictionary = (dictionaryId != null) ? dictionaries.get(dictionaryId) : null;
+		return new SerializedBackpack(compress(data, compressionLevel, dictionary), getCompressedSerializer(dictionary != null));
 	}
 
 	public ItemStack[] deserialize(byte[] data, int usedSerializer)
+	{
+		return deserialize(data, usedSerializer, null);
+	}
+
+	/**
+	 * Deserializes items.
+	 *
+	 * @param data The serialized items.
+	 * @param usedSerializer The version of the serializer the data has been created with.
+	 * @param lostItems Collects the names of items that could not be loaded while the rest of the items has been loaded (e.g. materials that don't exist anymore). null if they are not of interest.
+	 * @return The items. null if the data could not be loaded.
+	 */
+	public ItemStack[] deserialize(byte[] data, int usedSerializer, final @Nullable Collection<String> lostItems)
 	{
 		if(data == null) return null;
 		switch(usedSerializer)
@@ -76,8 +192,199 @@ public ItemStack[] deserialize(byte[] data, int usedSerializer)
 			case 0: return BUKKIT_ITEM_STACK_SERIALIZER.deserialize(data);
 			case 1: if(MCVersion.isNewerOrEqualThan(MCVersion.MC_1_13)) logger.warning(ConsoleColor.YELLOW + "Backpack was created with an old version of minepacks and minecraft. There is the chance that some items will disappear from it." + ConsoleColor.RESET);
 			case 2: return serializer.deserialize(data);
+			case 3:
+			case 4:
+			case 5:
+			case 6:
+			case 7:
+				try
+				{
+					byte[] raw = (usedSerializer == 5) ? data : decompress(data, dictionaries::get);
+					if(usedSerializer <= 4) return serializer.deserialize(raw);
+					if(compactSerializer == null)
+					{
+						logger.warning(ConsoleColor.RED + "The compact backpack format requires the NBTItemStackSerializer, which does not support your Minecraft version!" + ConsoleColor.RESET);
+						return null;
+					}
+					return compactSerializer.deserialize(raw, lostItems);
+				}
+				catch(DataFormatException e)
+				{
+					logger.warning(ConsoleColor.RED + "Failed to load backpack! Error: " + e.getMessage() + ConsoleColor.RESET);
+					return null;
+				}
 			default: logger.warning(ConsoleColor.RED + "No compatible deserializer for backpack format available!" + ConsoleColor.RESET);
 		}
 		return null;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Gets the uncompressed data of a stored backpack in the format that is used for new data.
+	 * Backpacks stored in another format get converted.
+	 *
+	 * @param stored The stored backpack.
+	 * @return The uncompressed data. null if the backpack could not be loaded.
+	 */
+	public @Nullable byte[] getUncompressedData(final @NotNull SerializedBackpack stored)
+	{
+		int version = stored.getVersion();
+		if(getRawVersion(version) == getRawSerializer())
+		{
+			if(version == getRawSerializer()) return stored.getData();
+			try
+			{
+				return decompress(stored.getData(), dictionaries::get);
+			}
+			catch(DataFormatException ignored)
+			{
+				return null;
+			}
+		}
+		ItemStack[] items = deserialize(stored.getData(), version);
+		return (items != null) ? serializeRaw(items) : null;
+	}
+
+	/**
+	 * Gets the size of the data of a stored backpack after decompressing it.
+	 *
+	 * @param stored The stored backpack.
+	 * @return The uncompressed size in bytes.
+	 */
+	public static int getUncompressedSize(final @NotNull SerializedBackpack stored)
+	{
+		byte[] data = stored.getData();
+		switch(stored.getVersion())
+		{
+			case 3: case 4: case 6: case 7:
+				if(data.length >= 4) return ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+			default: return data.length;
+		}
+	}
+
+	//region Dictionary handling
+	public static int getDictionaryId(final @NotNull byte[] dictionary)
+	{ // The adler32 checksum is what zlib stores in the header of streams compressed with a preset dictionary
+		Adler32 adler32 = new Adler32();
+		adler32.update(dictionary, 0, dictionary.length);
+		return (int) adler32.getValue();
+	}
+
+	/**
+	 * Adds a dictionary that can be used to load backpacks.
+	 *
+	 * @param dictionary The dictionary.
+	 * @return The id of the dictionary.
+	 */
+	public int addDictionary(final @NotNull byte[] dictionary)
+	{
+		int id = getDictionaryId(dictionary);
+		dictionaries.put(id, dictionary);
+		return id;
+	}
+
+	/**
+	 * Sets the dictionary that should be used for compressing new data.
+	 *
+	 * @param id The id of the dictionary. null to not use a dictionary.
+	 * @return False if the dictionary is not known.
+	 */
+	public boolean setActiveDictionary(final @Nullable Integer id)
+	{
+		if(id != null && !dictionaries.containsKey(id)) return false;
+		activeDictionary = id;
+		return true;
+	}
+
+	public @Nullable Integer getActiveDictionary()
+	{
+		return activeDictionary;
+	}
+
+	public @NotNull Map<Integer, byte[]> getDictionaries()
+	{
+		return Collections.unmodifiableMap(new HashMap<>(dictionaries));
+	}
+
+	/**
+	 * Checks if the data has been compressed with a dictionary that is not known.
+	 *
+	 * @param data The stored data.
+	 * @param usedSerializer The version of the serializer that has been used for the data.
+	 * @return True if the dictionary needed to load the data is not known.
+	 */
+	public boolean isDictionaryMissing(final @Nullable byte[] data, final int usedSerializer)
+	{
+		if((usedSerializer != 4 && usedSerializer != 7) || data == null || data.length < 10 || (data[5] & 0x20) == 0) return false; // The FDICT flag is set in the second byte of the zlib header
+		int id = ((data[6] & 0xFF) << 24) | ((data[7] & 0xFF) << 16) | ((data[8] & 0xFF) << 8) | (data[9] & 0xFF);
+		return !dictionaries.containsKey(id);
+	}
+	//endregion
+
+	/**
+	 * Compresses data with deflate. The size of the uncompressed data is stored in front of it, so the data can be inflated into an array of the exact size.
+	 */
+	static byte[] compress(final byte[] data, final int level, final @Nullable byte[] dictionary)
+	{
+		Deflater deflater = new Deflater(level);
+		try
+		{
+			if(dictionary != null) deflater.setDictionary(dictionary);
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2 + 16);
+			output.write(data.length >>> 24);
+			output.write(data.length >>> 16);
+			output.write(data.length >>> 8);
+			output.write(data.length);
+			byte[] buffer = new byte[4096];
+			while(!deflater.finished())
+			{
+				output.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return output.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	static byte[] decompress(final byte[] data, final @NotNull IntFunction<byte[]> dictionaryLookup) throws DataFormatException
+	{
+		if(data.length < 4) throw new DataFormatException("Data too short");
+		int length = ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+		if(length < 0 || length > MAX_UNCOMPRESSED_SIZE) throw new DataFormatException("Invalid uncompressed size " + length);
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(data, 4, data.length - 4);
+			byte[] result = new byte[length];
+			int read = 0;
+			while(read < length && !inflater.finished())
+			{
+				int count = inflater.inflate(result, read, length - read);
+				if(count == 0)
+				{
+					if(inflater.needsDictionary())
+					{
+						byte[] dictionary = dictionaryLookup.apply(inflater.getAdler());
+						if(dictionary == null) throw new DataFormatException("Unknown compression dictionary " + Integer.toHexString(inflater.getAdler()));
+						inflater.setDictionary(dictionary);
+						continue;
+					}
+					if(inflater.needsInput()) break;
+				}
+				read += count;
+			}
+			if(read != length) throw new DataFormatException("Expected " + length + " bytes, got " + read);
+			// The checksum at the end of the stream is only checked once the inflater reaches it
+			if(!inflater.finished() && inflater.inflate(new byte[1]) != 0) throw new DataFormatException("More than " + length + " bytes of data");
+			if(!inflater.finished()) throw new DataFormatException("Incomplete data");
+			return result;
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+}
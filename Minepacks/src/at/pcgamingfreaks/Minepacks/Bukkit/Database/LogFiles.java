@@ -0,0 +1,210 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import at.pcgamingfreaks.Minepacks.Bukkit.Backpack;
+import at.pcgamingfreaks.Minepacks.Bukkit.BackpackSnapshot;
+import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Stores the backpacks in append only segment files. Every save appends a new record (the used serializer byte and the serialized inventory, like the {@link Files} database)
+ * to the active segment. Once a segment reaches its max size it gets sealed by writing an index of its records as footer, so the in memory index can be rebuilt without reading the whole log.
+ * Old segments with mostly outdated or expired records get compacted on a background thread. The segments themselves are handled by the {@link BackpackLog}.
+ */
+public class LogFiles extends Database
+{
+	public static final String FOLDER_NAME = "backpack_log", EXT = BackpackLog.EXT;
+
+	private final BackpackLog log;
+	private final ExecutorService ioExecutor;
+	private final BukkitTask compactionTask;
+
+	public LogFiles(Minepacks plugin) throws IOException
+	{
+		super(plugin);
+		maxAge *= 24 * 3600000L;
+		File saveFolder = new File(this.plugin.getDataFolder(), FOLDER_NAME);
+		if(!saveFolder.exists() && !saveFolder.mkdirs())
+		{
+			throw new IOException("Failed to create save folder (" + saveFolder.getAbsolutePath() + ").");
+		}
+		log = new BackpackLog(saveFolder, plugin.getLogger(), plugin.getConfiguration().getLogMaxSegmentSize(), plugin.getConfiguration().getLogCompactionThreshold(),
+		                      plugin.getConfiguration().isLogMemoryMappedEnabled(), maxAge);
+		// All writes, reads and index changes are done by this thread, so saves and loads for a player can't overtake each other
+		ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Minepacks-Log");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long compactionInterval = plugin.getConfiguration().getLogCompactionInterval();
+		compactionTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, () -> log.compact(ioExecutor), compactionInterval, compactionInterval);
+	}
+
+	@Override
+	public void close()
+	{
+		super.close();
+		compactionTask.cancel();
+		ioExecutor.shutdown();
+		boolean finished = false;
+		try
+		{ // The backpacks have already been flushed, only wait for what is left of the shutdown timeout
+			finished = ioExecutor.awaitTermination(getRemainingShutdownTime(), TimeUnit.MILLISECONDS);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		if(!finished)
+		{ // Interrupting the writes would close the channels of the log, the active segment gets recovered on the next start instead of being sealed
+			int missed = backupPendingWrites();
+			plugin.getLogger().warning("Timed out waiting for the backpack log to be written! " + missed + " backpacks have been stored in the backups folder.");
+			return;
+		}
+		log.close();
+	}
+
+	@Override
+	public void updatePlayer(Player player)
+	{
+		// The log is stored with the uuid, there is no reason to update anything
+	}
+
+	// DB Functions
+	@Override
+	protected void saveBackpack(final @NotNull Backpack backpack, final @NotNull byte[] data, final int usedSerializer)
+	{
+		final UUID uuid = backpack.getOwner().getUniqueId();
+		final String ownerName = backpack.getOwner().getName();
+		final long write = inFlightWrites.begin(ownerName, getPlayerFormattedUUID(backpack.getOwner()), usedSerializer, data);
+		try
+		{
+			Future<?> future = ioExecutor.submit(() -> {
+				try
+				{
+					log.append(uuid, usedSerializer, data);
+				}
+				catch(IOException e)
+				{
+					plugin.getLogger().warning("Failed to write backpack to the log! Error: " + e.getMessage());
+					backupFailedSave(backpack, getPlayerFormattedUUID(backpack.getOwner()), usedSerializer, data);
+				}
+				finally
+				{
+					inFlightWrites.end(write);
+				}
+			});
+			if(!asyncSave) future.get();
+		}
+		catch(RejectedExecutionException e)
+		{ // The database is already closed
+			inFlightWrites.end(write);
+			backupFailedSave(backpack, getPlayerFormattedUUID(backpack.getOwner()), usedSerializer, data);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch(ExecutionException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	protected @NotNull CompletableFuture<Backpack> loadBackpack(final @NotNull OfflinePlayer player)
+	{
+		final CompletableFuture<Backpack> future = new CompletableFuture<>();
+		try
+		{
+			ioExecutor.execute(() -> {
+				SerializedBackpack stored = log.read(player.getUniqueId());
+				future.complete((stored != null) ? makeBackpack(player, stored.getData(), stored.getVersion(), -1) : null);
+			});
+		}
+		catch(RejectedExecutionException ignored)
+		{ // The database is already closed
+			future.complete(null);
+		}
+		return future;
+	}
+
+	@Override
+	protected @NotNull CompletableFuture<BackpackSnapshot> loadSnapshot(final @NotNull OfflinePlayer player)
+	{
+		final CompletableFuture<BackpackSnapshot> future = new CompletableFuture<>();
+		try
+		{
+			ioExecutor.execute(() -> {
+				SerializedBackpack stored = log.read(player.getUniqueId());
+				future.complete((stored != null) ? makeSnapshot(player, stored.getData(), stored.getVersion(), log.getTimestamp(player.getUniqueId())) : null);
+			});
+		}
+		catch(RejectedExecutionException ignored)
+		{ // The database is already closed
+			future.complete(null);
+		}
+		return future;
+	}
+
+	@Override
+	public @NotNull List<SerializedBackpack> sampleBackpacks(final int count)
+	{
+		try
+		{
+			return ioExecutor.submit(() -> {
+				List<UUID> uuids = new ArrayList<>(log.getStoredUUIDs());
+				Collections.shuffle(uuids);
+				List<SerializedBackpack> samples = new ArrayList<>(Math.min(count, uuids.size()));
+				for(UUID uuid : uuids)
+				{
+					if(samples.size() >= count) break;
+					SerializedBackpack stored = log.read(uuid);
+					if(stored != null) samples.add(stored);
+				}
+				return samples;
+			}).get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch(ExecutionException | RejectedExecutionException e)
+		{
+			e.printStackTrace();
+		}
+		return new ArrayList<>(0);
+	}
+
+	@Override
+	public void collectStatistics(final @NotNull Map<String, Object> statistics)
+	{
+		super.collectStatistics(statistics);
+		log.collectStatistics(statistics);
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+/**
+ * Hands the results of async operations back to the main thread. Instead of scheduling a task for every result,
+ * they are collected in one queue that gets drained by a single repeating task. If there are more results than can be handled within
+ * the time budget of a tick, the remaining ones are handled in the next tick.
+ */
+final class MainThreadQueue implements Executor, Runnable
+{
+	private static final long TICK_BUDGET = 2000000; // 2ms in ns
+
+	private final Plugin plugin;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final BukkitTask drainTask;
+	private volatile boolean closed = false;
+	private long executed = 0, deferredTicks = 0;
+
+	MainThreadQueue(final @NotNull Plugin plugin)
+	{
+		this.plugin = plugin;
+		drainTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1, 1);
+	}
+
+	/**
+	 * Runs a task on the main thread. Tasks given from the main thread are run directly.
+	 * Once the queue has been closed, tasks are scheduled with the bukkit scheduler as long as the plugin is enabled.
+	 *
+	 * @param task The task to be run.
+	 * @throws RejectedExecutionException If the queue has been closed and the plugin is disabled, so futures waiting for the task fail instead of never completing.
+	 */
+	@Override
+	public void execute(final @NotNull Runnable task)
+	{
+		if(plugin.getServer().isPrimaryThread()) task.run();
+		else if(!closed)
+		{
+			tasks.add(task);
+			if(closed && tasks.remove(task)) executeClosed(task); // The queue has been closed and drained in the meantime
+		}
+		else executeClosed(task);
+	}
+
+	/**
+	 * Runs a task on the main thread, like {@link #execute(Runnable)}. Tasks that can't be run anymore because the plugin has been disabled are discarded.
+	 * Only to be used for tasks no future or callback is waiting for.
+	 *
+	 * @param task The task to be run.
+	 */
+	void executeOrDiscard(final @NotNull Runnable task)
+	{
+		try
+		{
+			execute(task);
+		}
+		catch(RejectedExecutionException ignored) {}
+	}
+
+	private void executeClosed(final @NotNull Runnable task)
+	{
+		if(!plugin.isEnabled()) throw new RejectedExecutionException("The plugin has been disabled");
+		try
+		{
+			plugin.getServer().getScheduler().runTask(plugin, task);
+		}
+		catch(RuntimeException e)
+		{ // The plugin got disabled in the meantime (IllegalPluginAccessException)
+			throw new RejectedExecutionException(e);
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		if(tasks.isEmpty()) return;
+		long start = System.nanoTime();
+		Runnable task;
+		while((task = tasks.poll()) != null)
+		{
+			runTask(task);
+			if(System.nanoTime() - start > TICK_BUDGET)
+			{
+				if(!tasks.isEmpty()) deferredTicks++;
+				return;
+			}
+		}
+	}
+
+	private void runTask(final @NotNull Runnable task)
+	{
+		executed++;
+		try
+		{
+			task.run();
+		}
+		catch(RuntimeException e)
+		{
+			plugin.getLogger().log(Level.SEVERE, "Failed to run task on the main thread!", e);
+		}
+	}
+
+	/**
+	 * Stops the repeating task and runs all tasks that are still queued.
+	 */
+	public void close()
+	{
+		closed = true;
+		drainTask.cancel();
+		Runnable task;
+		while((task = tasks.poll()) != null)
+		{
+			runTask(task);
+		}
+	}
+
+	void collectStatistics(final @NotNull Map<String, Object> statistics)
+	{
+		statistics.put("Main thread queue size", tasks.size());
+		statistics.put("Main thread queue executed tasks", executed);
+		statistics.put("Main thread queue deferred ticks", deferredTicks);
+	}
+}
@@ -29,6 +29,7 @@
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.List;
 
 public class FilesToSQLMigration extends ToSQLMigration
 {
@@ -47,8 +48,8 @@ protected FilesToSQLMigration(@NotNull Minepacks plugin, @NotNull Files oldDb, @
 	@Override
 	public @Nullable MigrationResult migrate() throws Exception
 	{
-		File[] allFiles = saveFolder.listFiles((dir, name) -> name.endsWith(Files.EXT));
-		if(allFiles == null) return null;
+		List<File> allFiles = Files.listBackpackFiles(saveFolder);
+		if(allFiles.isEmpty()) return null;
 		try(Connection connection = newDb.getConnection(); PreparedStatement statementInsertUser = connection.prepareStatement(queryInsertUsers, PreparedStatement.RETURN_GENERATED_KEYS);
 		    PreparedStatement statementInsertBackpack = connection.prepareStatement(queryInsertBackpacks))
 		{
@@ -79,6 +80,7 @@ protected FilesToSQLMigration(@NotNull Minepacks plugin, @NotNull Files oldDb, @
 				}
 
 			}
+			migrateDictionaries();
 			return new MigrationResult("Migrated " + migrated + " backpacks from Files to " + newDb.getClass().getSimpleName(), MigrationResult.MigrationResultType.SUCCESS);
 		}
 		finally
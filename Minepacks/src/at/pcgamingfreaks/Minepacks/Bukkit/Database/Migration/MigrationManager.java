@@ -134,11 +134,15 @@ public Migration getMigrationPerformer(String targetDatabaseType)
 				case "mysql":
 					if(plugin.getDatabase() instanceof MySQL) return null;
 					if(plugin.getDatabase() instanceof SQL) return new SQLtoSQLMigration(plugin, (SQL) plugin.getDatabase(), "mysql", global);
-					else return new FilesToSQLMigration(plugin, (Files) plugin.getDatabase(), "mysql", global);
+					else if(plugin.getDatabase() instanceof Files) return new FilesToSQLMigration(plugin, (Files) plugin.getDatabase(), "mysql", global);
+					plugin.getLogger().warning(ConsoleColor.RED + "Migrating from " + plugin.getDatabase().getClass().getSimpleName() + " is not supported!" + ConsoleColor.RESET);
+					return null;
 				case "sqlite":
 					if(plugin.getDatabase() instanceof SQLite) return null;
 					if(plugin.getDatabase() instanceof SQL) return new SQLtoSQLMigration(plugin, (SQL) plugin.getDatabase(), "sqlite", global);
-					else return new FilesToSQLMigration(plugin, (Files) plugin.getDatabase(), "sqlite", global);
+					else if(plugin.getDatabase() instanceof Files) return new FilesToSQLMigration(plugin, (Files) plugin.getDatabase(), "sqlite", global);
+					plugin.getLogger().warning(ConsoleColor.RED + "Migrating from " + plugin.getDatabase().getClass().getSimpleName() + " is not supported!" + ConsoleColor.RESET);
+					return null;
 				default: plugin.getLogger().warning(String.format(Database.MESSAGE_UNKNOWN_DB_TYPE,  plugin.getConfiguration().getDatabaseType())); return null;
 			}
 		}
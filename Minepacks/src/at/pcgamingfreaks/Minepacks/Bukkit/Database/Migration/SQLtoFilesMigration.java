@@ -17,6 +17,7 @@
 
 package at.pcgamingfreaks.Minepacks.Bukkit.Database.Migration;
 
+import at.pcgamingfreaks.Minepacks.Bukkit.Database.Database;
 import at.pcgamingfreaks.Minepacks.Bukkit.Database.Files;
 import at.pcgamingfreaks.Minepacks.Bukkit.Database.SQL;
 import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
@@ -32,6 +33,7 @@
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.Map;
 
 public class SQLtoFilesMigration extends Migration
 {
@@ -52,11 +54,14 @@ protected SQLtoFilesMigration(@NotNull Minepacks plugin, @NotNull SQL oldDb) thr
 	public @Nullable MigrationResult migrate() throws Exception
 	{
 		int migrated = 0;
+		Files.invalidateManifest(saveFolder);
 		try(Connection connection = ((SQL) oldDb).getConnection(); Statement st = connection.createStatement(); ResultSet rs = st.executeQuery(sqlQuery))
 		{
 			while(rs.next())
 			{
-				try(FileOutputStream fos = new FileOutputStream(new File(saveFolder, rs.getString(1) + Files.EXT)))
+				File file = Files.getBackpackFile(saveFolder, rs.getString(1));
+				if(!file.getParentFile().exists() && !file.getParentFile().mkdirs()) plugin.getLogger().warning("Failed to create folder (" + file.getParentFile().getAbsolutePath() + ").");
+				try(FileOutputStream fos = new FileOutputStream(file))
 				{
 					fos.write(rs.getInt(3));
 					fos.write(rs.getBytes(2));
@@ -64,6 +69,11 @@ protected SQLtoFilesMigration(@NotNull Minepacks plugin, @NotNull SQL oldDb) thr
 				migrated++;
 			}
 		}
+		Integer activeDictionary = oldDb.getActiveDictionary();
+		for(Map.Entry<Integer, byte[]> dictionary : oldDb.getDictionaries().entrySet())
+		{
+			Database.writeDictionaryFile(plugin.getDataFolder(), dictionary.getKey(), dictionary.getValue(), dictionary.getKey().equals(activeDictionary));
+		}
 		return new MigrationResult("Migrated " + migrated + " backpacks from " + oldDb.getClass().getSimpleName() + " to Files.", MigrationResult.MigrationResultType.SUCCESS);
 	}
 }
\ No newline at end of file
@@ -48,6 +48,7 @@ protected SQLtoSQLMigration(@NotNull Minepacks plugin, @NotNull SQL oldDb, @NotN
 		{
 			int users = migrate("users", writeConnection, readStatement, "SELECT * FROM {TablePlayers};", queryInsertUsers);
 			int backpacks = migrate("backpacks", writeConnection, readStatement, "SELECT * FROM {TableBackpacks};", queryInsertBackpacks);
+			migrateDictionaries();
 			return new MigrationResult("Migrated " + users + " users and " + backpacks + " backpacks from " + oldDb.getClass().getSimpleName() + " to " + newDb.getClass().getSimpleName() + ".", MigrationResult.MigrationResultType.SUCCESS);
 		}
 		finally
@@ -72,6 +72,11 @@ protected ToSQLMigration(@NotNull Minepacks plugin, @NotNull Database oldDb, @No
 		}
 	}
 
+	protected void migrateDictionaries() throws Exception
+	{
+		newDb.importDictionaries(oldDb.getDictionaries(), oldDb.getActiveDictionary());
+	}
+
 	protected  @Language("SQL") String replacePlaceholders(SQL database, @Language("SQL") String query) throws Exception
 	{
 		return (String) METHOD_REPLACE_PLACEHOLDERS.invoke(database, query);
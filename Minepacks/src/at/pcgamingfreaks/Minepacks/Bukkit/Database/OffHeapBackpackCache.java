@@ -0,0 +1,175 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+/**
+ * Second cache tier for backpacks that have been removed from the cache. Keeps the serialized backpacks deflated in direct buffers,
+ * so they don't add to the heap, and evicts the least recently used ones once the size limit is reached.
+ * <p>
+ * The size limit applies to the backpacks kept in the cache. The memory of removed buffers is only released once the garbage collector has collected them,
+ * so the native memory used can temporarily be higher when a lot of backpacks get replaced (it is still limited by -XX:MaxDirectMemorySize).
+ */
+class OffHeapBackpackCache
+{
+	private final long maxSize;
+	private final LinkedHashMap<UUID, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private long usedSize = 0, hits = 0, misses = 0, evictions = 0;
+
+	/**
+	 * @param maxSize The max amount of bytes that should be used to store backpacks.
+	 */
+	public OffHeapBackpackCache(final long maxSize)
+	{
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Creates the entry for a backpack. Uncompressed data gets deflated, so it uses less memory in the cache.
+	 * Can be used from any thread.
+	 *
+	 * @param stored The stored data of the backpack, needs to match the data in the database.
+	 * @param ownerID The database id of the owner.
+	 * @return The entry to be stored.
+	 */
+	public static @NotNull Entry makeEntry(final @NotNull SerializedBackpack stored, final int ownerID)
+	{
+		final boolean compress = stored.getVersion() == 2 || stored.getVersion() == 5;
+		byte[] data = compress ? InventorySerializer.compress(stored.getData(), Deflater.BEST_SPEED, null) : stored.getData();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data);
+		return new Entry(buffer, stored.getVersion(), ownerID, compress);
+	}
+
+	/**
+	 * Stores a backpack. The least recently used backpacks get evicted if there is not enough space left.
+	 *
+	 * @param owner The uuid of the owner of the backpack.
+	 * @param entry The entry of the backpack, see {@link #makeEntry(SerializedBackpack, int)}.
+	 */
+	public synchronized void put(final @NotNull UUID owner, final @NotNull Entry entry)
+	{
+		remove(owner);
+		final int size = entry.data.capacity();
+		if(size > maxSize) return;
+		Iterator<Entry> iterator = entries.values().iterator();
+		while(usedSize + size > maxSize && iterator.hasNext())
+		{ // The iteration order of the map is the access order, the least recently used backpacks come first
+			usedSize -= iterator.next().data.capacity();
+			iterator.remove();
+			evictions++;
+		}
+		entries.put(owner, entry);
+		usedSize += size;
+	}
+
+	/**
+	 * Removes a backpack from the cache.
+	 *
+	 * @param owner The uuid of the owner of the backpack.
+	 * @return The entry of the backpack. null if the backpack is not cached.
+	 */
+	public synchronized @Nullable Entry take(final @NotNull UUID owner)
+	{
+		Entry entry = entries.remove(owner);
+		if(entry == null)
+		{
+			misses++;
+			return null;
+		}
+		usedSize -= entry.data.capacity();
+		hits++;
+		return entry;
+	}
+
+	public synchronized void remove(final @NotNull UUID owner)
+	{
+		Entry entry = entries.remove(owner);
+		if(entry != null) usedSize -= entry.data.capacity();
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		usedSize = 0;
+	}
+
+	synchronized void collectStatistics(final @NotNull Map<String, Object> statistics)
+	{
+		statistics.put("Off-heap cache entries", entries.size());
+		statistics.put("Off-heap cache size (bytes)", usedSize + " / " + maxSize);
+		statistics.put("Off-heap cache hits", hits);
+		statistics.put("Off-heap cache misses", misses);
+		statistics.put("Off-heap cache evictions", evictions);
+	}
+
+	public static final class Entry
+	{
+		private final ByteBuffer data;
+		private final int version, ownerID;
+		private final boolean compressed;
+
+		private Entry(final @NotNull ByteBuffer data, final int version, final int ownerID, final boolean compressed)
+		{
+			this.data = data;
+			this.version = version;
+			this.ownerID = ownerID;
+			this.compressed = compressed;
+		}
+
+		/**
+		 * Gets the stored data of the backpack, in the same format it has been put into the cache.
+		 *
+		 * @return The stored data. null if the data could not be inflated.
+		 */
+		public @Nullable SerializedBackpack getStored()
+		{
+			byte[] bytes = new byte[data.capacity()];
+			ByteBuffer source = data.duplicate();
+			source.clear();
+			source.get(bytes);
+			if(compressed)
+			{
+				try
+				{
+					bytes = InventorySerializer.decompress(bytes, id -> null);
+				}
+				catch(DataFormatException ignored)
+				{
+					return null;
+				}
+			}
+			return new SerializedBackpack(bytes, version);
+		}
+
+		public int getOwnerID()
+		{
+			return ownerID;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares one instance of the stored data between all cached backpacks with identical data (e.g. empty backpacks or backpacks filled with the same starter kit).
+ * Instances are only referenced weakly, they are removed once no backpack uses them anymore.
+ */
+class PayloadInterner
+{
+	private final Map<SerializedBackpack, WeakReference<SerializedBackpack>> canonical = new WeakHashMap<>();
+	private final AtomicLong sharedBytes = new AtomicLong();
+
+	/**
+	 * Gets the shared instance of the stored data.
+	 *
+	 * @param stored The stored data.
+	 * @return The shared instance with the same data. The given instance if there is none yet.
+	 */
+	public synchronized @NotNull SerializedBackpack intern(final @NotNull SerializedBackpack stored)
+	{
+		WeakReference<SerializedBackpack> reference = canonical.get(stored);
+		SerializedBackpack existing = (reference != null) ? reference.get() : null;
+		if(existing != null)
+		{
+			sharedBytes.addAndGet(stored.getData().length);
+			return existing;
+		}
+		canonical.put(stored, new WeakReference<>(stored));
+		return stored;
+	}
+
+	synchronized void collectStatistics(final @NotNull Map<String, Object> statistics)
+	{
+		statistics.put("Interned payloads", canonical.size());
+		statistics.put("Deduplicated payload bytes (total)", sharedBytes.get());
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the database id and the last known name of the players, so the SQL databases don't have to look them up for every save, load and join.
+ */
+class PlayerRegistry
+{
+	private final Map<String, Entry> players = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+	/**
+	 * Gets the database id of a player.
+	 *
+	 * @param uuid The formatted uuid of the player.
+	 * @return The id of the player. -1 if the player is not known yet.
+	 */
+	public int getId(final @NotNull String uuid)
+	{
+		Entry entry = players.get(uuid);
+		if(entry == null)
+		{
+			misses.incrementAndGet();
+			return -1;
+		}
+		hits.incrementAndGet();
+		return entry.id;
+	}
+
+	/**
+	 * Checks if the stored name of a player has to be updated.
+	 *
+	 * @param uuid The formatted uuid of the player.
+	 * @param name The current name of the player.
+	 * @return True if the player is not known or has changed his name.
+	 */
+	public boolean needsUpdate(final @NotNull String uuid, final @NotNull String name)
+	{
+		Entry entry = players.get(uuid);
+		return entry == null || !name.equals(entry.name);
+	}
+
+	/**
+	 * Adds or updates a player.
+	 *
+	 * @param uuid The formatted uuid of the player.
+	 * @param id The id of the player in the database.
+	 * @param name The name stored in the database. null if it is not known, the previous known name will be kept if the id has not changed.
+	 */
+	public void put(final @NotNull String uuid, final int id, final @Nullable String name)
+	{
+		if(id <= 0) return;
+		players.compute(uuid, (key, old) -> new Entry(id, (name == null && old != null && old.id == id) ? old.name : name));
+	}
+
+	void collectStatistics(final @NotNull Map<String, Object> statistics)
+	{
+		statistics.put("Player registry size", players.size());
+		statistics.put("Player registry hits", hits.get());
+		statistics.put("Player registry misses", misses.get());
+	}
+
+	private static final class Entry
+	{
+		final int id;
+		final String name;
+
+		Entry(final int id, final @Nullable String name)
+		{
+			this.id = id;
+			this.name = name;
+		}
+	}
+}
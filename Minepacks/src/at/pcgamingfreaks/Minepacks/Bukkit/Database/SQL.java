@@ -21,27 +21,42 @@
 import at.pcgamingfreaks.Database.DBTools;
 import at.pcgamingfreaks.Minepacks.Bukkit.API.Callback;
 import at.pcgamingfreaks.Minepacks.Bukkit.Backpack;
+import at.pcgamingfreaks.Minepacks.Bukkit.BackpackSnapshot;
 import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
 import at.pcgamingfreaks.UUIDConverter;
-import at.pcgamingfreaks.Utils;
 
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
-import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitTask;
 import org.intellij.lang.annotations.Language;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public abstract class SQL extends Database
 {
+	protected static final String METADATA_TABLE = "minepacks_metadata";
+	private static final String METADATA_KEY_DICTIONARY = "dictionary_", METADATA_KEY_ACTIVE_DICTIONARY = "active_dictionary";
+	private static final int BULK_LOAD_CHUNK_SIZE = 100; // Max amount of uuids per query when loading multiple backpacks
+	private static final int JOIN_BATCH_WINDOW = 5; // Ticks joins get collected before the players get updated and their backpacks loaded
+
 	private final ConnectionProvider dataSource;
+	private final SaveQueue saveQueue;
+	private final PlayerRegistry playerRegistry = new PlayerRegistry();
+	protected final DatabaseExecutor dbExecutor;
+	private final List<SaveQueue.Entry> shutdownBatch = Collections.synchronizedList(new ArrayList<>());
+	private final List<Player> joinBatch = new ArrayList<>(); // Only used on the main thread
+	private BukkitTask joinBatchTask = null;
 
 	protected String tablePlayers, tableBackpacks, tableCooldowns; // Table Names
 	protected String fieldPlayerName, fieldPlayerID, fieldPlayerUUID, fieldBpOwner, fieldBpIts, fieldBpVersion, fieldBpLastUpdate, fieldCdPlayer, fieldCdTime; // Table Fields
-	@Language("SQL") protected String queryUpdatePlayerAdd, queryGetPlayerID, queryInsertBp, queryUpdateBp, queryGetBP, queryDeleteOldBackpacks, queryGetUnsetOrInvalidUUIDs, queryFixUUIDs; // DB Querys
+	@Language("SQL") protected String queryUpdatePlayerAdd, queryGetPlayerID, queryGetPlayerIDs, queryInsertBp, queryUpdateBp, queryGetBP, queryGetBPByOwner, queryGetBPs, queryGetBPSnapshot, querySampleBPs, queryDeleteOldBackpacks, queryGetUnsetOrInvalidUUIDs, queryFixUUIDs; // DB Querys
 	@Language("SQL") protected String queryDeleteOldCooldowns, querySyncCooldown, queryGetCooldown; // DB Querys
 	protected boolean syncCooldown;
 
@@ -51,6 +66,7 @@ public SQL(@NotNull Minepacks plugin, @NotNull ConnectionProvider connectionProv
 
 		dataSource = connectionProvider;
 		if(!dataSource.isAvailable()) throw new IllegalStateException("Failed to initialize database connection!");
+		dbExecutor = new DatabaseExecutor(getMaxConnections());
 
 		loadSettings();
 		buildQuerys();
@@ -81,6 +97,53 @@ public SQL(@NotNull Minepacks plugin, @NotNull ConnectionProvider connectionProv
 				e.printStackTrace();
 			}
 		}
+
+		saveQueue = (plugin.getConfiguration().isWriteBehindEnabled() && !bungeeCordMode) ? new SaveQueue(this, plugin.getConfiguration().getWriteBehindFlushInterval(), plugin.getConfiguration().getWriteBehindMaxQueueSize()) : null;
+		warmPlayerRegistry();
+	}
+
+	private void warmPlayerRegistry()
+	{
+		Collection<? extends Player> players = Bukkit.getOnlinePlayers();
+		if(players.isEmpty()) return; // Normal server start, the players will be added when they join
+		try(Connection connection = getConnection())
+		{
+			for(Player player : players)
+			{
+				getPlayerID(connection, getPlayerFormattedUUID(player));
+			}
+		}
+		catch(SQLException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Gets the database id of a player. The id is looked up in the database only if it is not cached yet.
+	 *
+	 * @param connection The connection to be used if the player has to be looked up.
+	 * @param uuid The formatted uuid of the player.
+	 * @return The id of the player. -1 if the player is not in the database.
+	 */
+	protected int getPlayerID(final @NotNull Connection connection, final @NotNull String uuid) throws SQLException
+	{
+		int id = playerRegistry.getId(uuid);
+		if(id > 0) return id;
+		try(PreparedStatement ps = connection.prepareStatement(queryGetPlayerID))
+		{
+			ps.setString(1, uuid);
+			try(ResultSet rs = ps.executeQuery())
+			{
+				if(rs.next())
+				{
+					id = rs.getInt(fieldPlayerID);
+					playerRegistry.put(uuid, id, rs.getString(fieldPlayerName));
+					return id;
+				}
+			}
+		}
+		return -1;
 	}
 
 	protected void loadSettings()
@@ -104,11 +167,106 @@ protected void loadSettings()
 	@Override
 	public void close()
 	{
+		if(joinBatchTask != null)
+		{ // The backpacks don't need to be loaded anymore, but the players still need to be stored
+			joinBatchTask.cancel();
+			final Map<String, String> players = getPlayersToUpdate(joinBatch);
+			joinBatch.clear();
+			if(!players.isEmpty()) dbExecutor.execute(DatabaseExecutor.Priority.LOAD, () -> updatePlayers(players));
+		}
 		super.close();
-		Utils.blockThread(1); // Give the database some time to perform async operations
+		dbExecutor.shutdown();
+		try
+		{ // Give the remaining operations (e.g. player updates) some time to finish before the connections get closed
+			if(!dbExecutor.awaitTermination(5, TimeUnit.SECONDS)) plugin.getLogger().warning("Timed out waiting for the database operations to finish!");
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
 		dataSource.close();
 	}
 
+	@Override
+	protected void writeQueuedSaves()
+	{
+		final List<SaveQueue.Entry> batch;
+		if(saveQueue != null)
+		{
+			saveQueue.close();
+			batch = saveQueue.getQueued();
+		}
+		else
+		{
+			synchronized(shutdownBatch)
+			{
+				batch = new ArrayList<>(shutdownBatch);
+				shutdownBatch.clear();
+			}
+		}
+		if(batch.isEmpty()) return;
+		final long[] writes = new long[batch.size()];
+		for(int i = 0; i < writes.length; i++)
+		{
+			SaveQueue.Entry entry = batch.get(i);
+			writes[i] = inFlightWrites.begin(entry.ownerName, entry.ownerUUID, entry.usedSerializer, entry.data);
+		}
+		dbExecutor.execute(DatabaseExecutor.Priority.SAVE, () -> {
+			try
+			{
+				if((saveQueue != null) ? saveQueue.flush() : writeBatch(batch)) return;
+				for(SaveQueue.Entry entry : (saveQueue != null) ? saveQueue.getQueued() : batch)
+				{ // The database is not reachable, don't lose the backpacks
+					backupFailedSave(entry.backpack, entry.ownerUUID, entry.usedSerializer, entry.data);
+				}
+			}
+			finally
+			{
+				for(long write : writes)
+				{
+					inFlightWrites.end(write);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets the amount of connections the database can be used with at the same time. Used as the amount of threads for the database operations.
+	 *
+	 * @return The max amount of connections.
+	 */
+	protected int getMaxConnections()
+	{
+		return plugin.getConfiguration().getMaxDatabaseConnections();
+	}
+
+	/**
+	 * Builds a list of query parameters, used for IN clauses and inserts of multiple rows.
+	 *
+	 * @param group The parameters of one entry, e.g. "?" or "(?,?)".
+	 * @param count The amount of entries.
+	 * @return The parameter list, e.g. "?,?,?".
+	 */
+	protected static @NotNull String parameterList(final @NotNull String group, final int count)
+	{
+		return String.join(",", Collections.nCopies(count, group));
+	}
+
+	/**
+	 * Runs a load on the database executor. The future gets completed with null if the database has already been closed.
+	 */
+	private void executeLoad(final @NotNull DatabaseExecutor.Priority priority, final @NotNull CompletableFuture<?> future, final @NotNull Runnable task)
+	{
+		try
+		{
+			dbExecutor.execute(priority, task);
+		}
+		catch(RejectedExecutionException ignored)
+		{
+			future.complete(null);
+		}
+	}
+
 	protected void checkUUIDs()
 	{
 		class UpdateData // Helper class for fixing UUIDs
@@ -188,9 +346,14 @@ protected final void buildQuerys()
 	{
 		// Build the SQL querys with placeholders for the table and field names
 		queryGetBP = "SELECT {FieldBPOwner},{FieldBPITS},{FieldBPVersion} FROM {TableBackpacks} INNER JOIN {TablePlayers} ON {TableBackpacks}.{FieldBPOwner}={TablePlayers}.{FieldPlayerID} WHERE {FieldUUID}=?;";
+		queryGetBPByOwner = "SELECT {FieldBPOwner},{FieldBPITS},{FieldBPVersion} FROM {TableBackpacks} WHERE {FieldBPOwner}=?;";
+		queryGetBPSnapshot = "SELECT {FieldBPITS},{FieldBPVersion},{FieldBPLastUpdate} FROM {TableBackpacks} INNER JOIN {TablePlayers} ON {TableBackpacks}.{FieldBPOwner}={TablePlayers}.{FieldPlayerID} WHERE {FieldUUID}=?;";
+		queryGetBPs = "SELECT {FieldUUID},{FieldBPOwner},{FieldBPITS},{FieldBPVersion} FROM {TableBackpacks} INNER JOIN {TablePlayers} ON {TableBackpacks}.{FieldBPOwner}={TablePlayers}.{FieldPlayerID} WHERE {FieldUUID} IN (?);"; // The parameter list gets expanded to the amount of uuids
+		querySampleBPs = "SELECT {FieldBPITS},{FieldBPVersion} FROM {TableBackpacks} ORDER BY RAND() LIMIT ?;"; // Random rows, so the dictionary is not trained on recently used backpacks only
 		querySyncCooldown = "INSERT INTO {TableCooldowns} ({FieldCDPlayer},{FieldCDTime}) SELECT {FieldPlayerID},? FROM {TablePlayers} WHERE {FieldUUID}=? ON DUPLICATE KEY UPDATE {FieldCDTime}=?;";
-		queryUpdatePlayerAdd = "INSERT INTO {TablePlayers} ({FieldName},{FieldUUID}) VALUES (?,?) ON DUPLICATE KEY UPDATE {FieldName}=?;";
-		queryGetPlayerID = "SELECT {FieldPlayerID} FROM {TablePlayers} WHERE {FieldUUID}=?;";
+		queryUpdatePlayerAdd = "INSERT INTO {TablePlayers} ({FieldName},{FieldUUID}) VALUES (?,?) ON DUPLICATE KEY UPDATE {FieldName}=VALUES({FieldName});"; // The values get expanded when multiple players are added at once
+		queryGetPlayerID = "SELECT {FieldPlayerID},{FieldName} FROM {TablePlayers} WHERE {FieldUUID}=?;";
+		queryGetPlayerIDs = "SELECT {FieldPlayerID},{FieldName},{FieldUUID} FROM {TablePlayers} WHERE {FieldUUID} IN (?);"; // The parameter list gets expanded to the amount of uuids
 		queryGetCooldown = "SELECT * FROM {TableCooldowns} WHERE {FieldCDPlayer} IN (SELECT {FieldPlayerID} FROM {TablePlayers} WHERE {FieldUUID}=?);";
 		queryInsertBp = "REPLACE INTO {TableBackpacks} ({FieldBPOwner},{FieldBPITS},{FieldBPVersion}) VALUES (?,?,?);";
 		queryUpdateBp = "UPDATE {TableBackpacks} SET {FieldBPITS}=?,{FieldBPVersion}=?,{FieldBPLastUpdate}={NOW} WHERE {FieldBPOwner}=?;";
@@ -216,7 +379,12 @@ protected void setTableAndFieldNames()
 		// Replace the table and filed names with the names from the config
 		queryUpdatePlayerAdd        = replacePlaceholders(queryUpdatePlayerAdd);
 		queryGetPlayerID            = replacePlaceholders(queryGetPlayerID);
+		queryGetPlayerIDs           = replacePlaceholders(queryGetPlayerIDs);
 		queryGetBP                  = replacePlaceholders(queryGetBP);
+		queryGetBPByOwner           = replacePlaceholders(queryGetBPByOwner);
+		queryGetBPs                 = replacePlaceholders(queryGetBPs);
+		queryGetBPSnapshot          = replacePlaceholders(queryGetBPSnapshot);
+		querySampleBPs              = replacePlaceholders(querySampleBPs);
 		queryInsertBp               = replacePlaceholders(queryInsertBp);
 		queryUpdateBp               = replacePlaceholders(queryUpdateBp);
 		queryFixUUIDs               = replacePlaceholders(queryFixUUIDs);
@@ -240,7 +408,7 @@ protected String replacePlaceholders(@Language("SQL") String query)
 
 	protected void runStatementAsync(final String query, final Object... args)
 	{
-		Bukkit.getServer().getScheduler().runTaskAsynchronously(plugin, () -> runStatement(query, args));
+		dbExecutor.execute(DatabaseExecutor.Priority.BACKGROUND, () -> runStatement(query, args));
 	}
 
 	protected void runStatement(final String query, final Object... args)
@@ -264,38 +432,164 @@ protected void runStatement(final String query, final Object... args)
 	@Override
 	public void updatePlayer(final Player player)
 	{
-		runStatementAsync(queryUpdatePlayerAdd, player.getName(), getPlayerFormattedUUID(player), player.getName());
+		final String uuid = getPlayerFormattedUUID(player), name = player.getName();
+		if(!playerRegistry.needsUpdate(uuid, name)) return; // The player is already stored with his current name
+		dbExecutor.execute(DatabaseExecutor.Priority.LOAD, () -> { // The id of the player is needed to save the backpack
+			try(Connection connection = getConnection())
+			{
+				updatePlayer(connection, uuid, name);
+				try(PreparedStatement ps = connection.prepareStatement(queryGetPlayerID))
+				{
+					ps.setString(1, uuid);
+					try(ResultSet rs = ps.executeQuery())
+					{
+						if(rs.next()) playerRegistry.put(uuid, rs.getInt(fieldPlayerID), name);
+					}
+				}
+			}
+			catch(SQLException e)
+			{
+				plugin.getLogger().severe("Failed to update player " + name + " (" + uuid + ")!");
+				e.printStackTrace();
+			}
+		});
+	}
+
+	protected void updatePlayer(final @NotNull Connection connection, final @NotNull String uuid, final @NotNull String name) throws SQLException
+	{
+		DBTools.runStatement(connection, queryUpdatePlayerAdd, name, uuid);
+	}
+
+	/**
+	 * Collects the joining players and updates them and loads their backpacks in one batch, so a lot of players joining at the same time
+	 * (e.g. after a restart) don't need a statement and task each.
+	 */
+	@Override
+	public void updatePlayerAndLoadBackpack(final Player player)
+	{
+		if(!Bukkit.isPrimaryThread())
+		{
+			super.updatePlayerAndLoadBackpack(player);
+			return;
+		}
+		joinBatch.add(player);
+		if(joinBatchTask == null) joinBatchTask = Bukkit.getScheduler().runTaskLater(plugin, this::flushJoinBatch, JOIN_BATCH_WINDOW);
+	}
+
+	private void flushJoinBatch()
+	{
+		joinBatchTask = null;
+		final List<Player> players = new ArrayList<>(joinBatch);
+		joinBatch.clear();
+		final Map<String, String> toUpdate = getPlayersToUpdate(players);
+		if(!toUpdate.isEmpty()) dbExecutor.execute(DatabaseExecutor.Priority.LOAD, () -> updatePlayers(toUpdate));
+		if(!bungeeCordMode)
+		{ // The backpacks of all joined players get fetched with one query, every player still gets his own backpack future
+			players.removeIf(player -> !player.isOnline());
+			getBackpacksAsync(players, true, false);
+		}
+	}
+
+	private @NotNull Map<String, String> getPlayersToUpdate(final @NotNull Collection<Player> players)
+	{
+		final Map<String, String> toUpdate = new LinkedHashMap<>();
+		for(Player player : players)
+		{
+			final String uuid = getPlayerFormattedUUID(player), name = player.getName();
+			if(playerRegistry.needsUpdate(uuid, name)) toUpdate.put(uuid, name);
+		}
+		return toUpdate;
+	}
+
+	/**
+	 * Adds or updates multiple players and caches their ids.
+	 *
+	 * @param players The formatted uuids and names of the players.
+	 */
+	private void updatePlayers(final @NotNull Map<String, String> players)
+	{
+		final List<Map.Entry<String, String>> entries = new ArrayList<>(players.entrySet());
+		try(Connection connection = getConnection())
+		{
+			for(int start = 0; start < entries.size(); start += BULK_LOAD_CHUNK_SIZE)
+			{
+				final List<Map.Entry<String, String>> chunk = entries.subList(start, Math.min(entries.size(), start + BULK_LOAD_CHUNK_SIZE));
+				updatePlayers(connection, chunk);
+				try(PreparedStatement ps = connection.prepareStatement(queryGetPlayerIDs.replace("(?)", "(" + parameterList("?", chunk.size()) + ")")))
+				{
+					for(int i = 0; i < chunk.size(); i++)
+					{
+						ps.setString(i + 1, chunk.get(i).getKey());
+					}
+					try(ResultSet rs = ps.executeQuery())
+					{
+						while(rs.next())
+						{
+							playerRegistry.put(rs.getString(fieldPlayerUUID).toLowerCase(Locale.ROOT), rs.getInt(fieldPlayerID), rs.getString(fieldPlayerName));
+						}
+					}
+				}
+			}
+		}
+		catch(SQLException e)
+		{
+			plugin.getLogger().severe("Failed to update " + players.size() + " players!");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Adds or updates multiple players with one statement.
+	 *
+	 * @param connection The connection to be used.
+	 * @param players The formatted uuids and names of the players.
+	 */
+	protected void updatePlayers(final @NotNull Connection connection, final @NotNull List<Map.Entry<String, String>> players) throws SQLException
+	{
+		try(PreparedStatement ps = connection.prepareStatement(queryUpdatePlayerAdd.replace("(?,?)", parameterList("(?,?)", players.size()))))
+		{
+			int i = 1;
+			for(Map.Entry<String, String> player : players)
+			{
+				ps.setString(i++, player.getValue());
+				ps.setString(i++, player.getKey());
+			}
+			ps.executeUpdate();
+		}
 	}
 
 	@Override
-	public void saveBackpack(final Backpack backpack)
+	protected void saveBackpack(final @NotNull Backpack backpack, final @NotNull byte[] data, final int usedSerializer)
 	{
-		final byte[] data = itsSerializer.serialize(backpack.getInventory());
-		final int id = backpack.getOwnerID(), usedSerializer = itsSerializer.getUsedSerializer();
+		final int id = backpack.getOwnerID();
 		final String nameOrUUID = getPlayerFormattedUUID(backpack.getOwner()), name = backpack.getOwner().getName();
 
+		if(saveQueue != null)
+		{ // The queue gets written in batches, the remaining backpacks are written by writeQueuedSaves once the database is closed
+			saveQueue.add(new SaveQueue.Entry(backpack, nameOrUUID, data, usedSerializer));
+			return;
+		}
+		if(!asyncSave)
+		{ // The database is closing, all backpacks get written in one batch by writeQueuedSaves
+			shutdownBatch.add(new SaveQueue.Entry(backpack, nameOrUUID, data, usedSerializer));
+			return;
+		}
+
 		Runnable runnable = () -> {
 			try(Connection connection = getConnection())
 			{
 				if(id <= 0)
 				{
-					try(PreparedStatement ps = connection.prepareStatement(queryGetPlayerID))
+					final int newID = getPlayerID(connection, nameOrUUID);
+					if(newID > 0)
 					{
-						ps.setString(1, nameOrUUID);
-						try(ResultSet rs = ps.executeQuery())
-						{
-							if(rs.next())
-							{
-								final int newID = rs.getInt(fieldPlayerID);
-								DBTools.runStatement(connection, queryInsertBp, newID, data, usedSerializer);
-								plugin.getServer().getScheduler().runTask(plugin, () -> backpack.setOwnerID(newID));
-							}
-							else
-							{
-								plugin.getLogger().warning("Failed saving backpack for: " + name + " (Unable to get players ID from database)");
-								writeBackup(name, nameOrUUID, usedSerializer, data);
-							}
-						}
+						DBTools.runStatement(connection, queryInsertBp, newID, data, usedSerializer);
+						mainThreadExecutor.executeOrDiscard(() -> backpack.setOwnerID(newID));
+					}
+					else
+					{
+						plugin.getLogger().warning("Failed saving backpack for: " + name + " (Unable to get players ID from database)");
+						backupFailedSave(backpack, nameOrUUID, usedSerializer, data);
 					}
 				}
 				else
@@ -307,58 +601,327 @@ public void saveBackpack(final Backpack backpack)
 			{
 				plugin.getLogger().warning("Failed to save backpack in database! Error: " + e.getMessage());
 				e.printStackTrace();
-				writeBackup(name, nameOrUUID, usedSerializer, data);
+				backupFailedSave(backpack, nameOrUUID, usedSerializer, data);
 			}
 		};
-		if(asyncSave) Bukkit.getScheduler().runTaskAsynchronously(plugin, runnable); else runnable.run();
+		// Writes of the same backpack are queued once the previous one has finished, so they can't overtake each other on the executor threads
+		final CompletableFuture<Void> previous = inFlightWrites.whenWritten(nameOrUUID);
+		final long write = inFlightWrites.begin(name, nameOrUUID, usedSerializer, data);
+		previous.thenRun(() -> {
+			try
+			{
+				dbExecutor.execute(DatabaseExecutor.Priority.SAVE, () -> {
+					try
+					{
+						runnable.run();
+					}
+					finally
+					{
+						inFlightWrites.end(write);
+					}
+				});
+			}
+			catch(RejectedExecutionException e)
+			{ // The database is already closed
+				inFlightWrites.end(write);
+				backupFailedSave(backpack, nameOrUUID, usedSerializer, data);
+			}
+		});
 	}
 
 	@Override
-	protected void loadBackpack(final OfflinePlayer player, final Callback<Backpack> callback)
+	protected @NotNull CompletableFuture<Backpack> loadBackpack(final @NotNull OfflinePlayer player)
 	{
-		plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
-			try(Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(queryGetBP))
+		final CompletableFuture<Backpack> future = new CompletableFuture<>();
+		executeLoad(DatabaseExecutor.Priority.LOAD, future, () -> {
+			final String uuid = getPlayerFormattedUUID(player);
+			final SaveQueue.Entry queued = (saveQueue != null) ? saveQueue.getPending(uuid) : null;
+			final int bpID, version;
+			final byte[] data;
+			if(queued != null)
+			{ // The backpack has been saved but not yet been written to the database, the queued state is newer than the one in the database
+				bpID = queued.backpack.getOwnerID();
+				version = queued.usedSerializer;
+				data = queued.data;
+			}
+			else
 			{
-				ps.setString(1, getPlayerFormattedUUID(player));
-				final int bpID, version;
-				final byte[] data;
-				try(ResultSet rs = ps.executeQuery())
+				final int playerID = playerRegistry.getId(uuid);
+				try(Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement((playerID > 0) ? queryGetBPByOwner : queryGetBP))
 				{
-					if(rs.next())
+					if(playerID > 0) ps.setInt(1, playerID); // The id is known, no need to join the players table
+					else ps.setString(1, uuid);
+					try(ResultSet rs = ps.executeQuery())
 					{
-						bpID = rs.getInt(fieldBpOwner);
-						version = rs.getInt(fieldBpVersion);
-						data = rs.getBytes(fieldBpIts);
+						if(rs.next())
+						{
+							bpID = rs.getInt(fieldBpOwner);
+							version = rs.getInt(fieldBpVersion);
+							data = rs.getBytes(fieldBpIts);
+							playerRegistry.put(uuid, bpID, null);
+						}
+						else
+						{
+							bpID = -1;
+							version = 0;
+							data = null;
+						}
 					}
-					else
+				}
+				catch(SQLException e)
+				{
+					e.printStackTrace();
+					future.complete(null);
+					return;
+				}
+			}
+
+			future.complete(makeBackpack(player, data, version, bpID));
+		});
+		return future;
+	}
+
+	@Override
+	protected @NotNull CompletableFuture<BackpackSnapshot> loadSnapshot(final @NotNull OfflinePlayer player)
+	{
+		final CompletableFuture<BackpackSnapshot> future = new CompletableFuture<>();
+		executeLoad(DatabaseExecutor.Priority.BACKGROUND, future, () -> {
+			final String uuid = getPlayerFormattedUUID(player);
+			final SaveQueue.Entry queued = (saveQueue != null) ? saveQueue.getPending(uuid) : null;
+			if(queued != null)
+			{ // The queued state is newer than the one in the database, it has not been written yet
+				future.complete(makeSnapshot(player, queued.data, queued.usedSerializer, -1));
+				return;
+			}
+			try(Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(queryGetBPSnapshot))
+			{
+				ps.setString(1, uuid);
+				try(ResultSet rs = ps.executeQuery())
+				{
+					future.complete(rs.next() ? makeSnapshot(player, rs.getBytes(fieldBpIts), rs.getInt(fieldBpVersion), getLastUpdate(rs)) : null);
+				}
+			}
+			catch(SQLException e)
+			{
+				e.printStackTrace();
+				future.complete(null);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Reads the last update time of a backpack from a result set.
+	 *
+	 * @param rs The result set, positioned on the row of the backpack.
+	 * @return The time in milliseconds since the epoch. -1 if it is not set.
+	 */
+	protected long getLastUpdate(final @NotNull ResultSet rs) throws SQLException
+	{
+		Timestamp lastUpdate = rs.getTimestamp(fieldBpLastUpdate);
+		return (lastUpdate != null) ? lastUpdate.getTime() : -1;
+	}
+
+	@Override
+	protected @NotNull CompletableFuture<Map<OfflinePlayer, Backpack>> loadBackpacks(final @NotNull Collection<OfflinePlayer> players)
+	{
+		final CompletableFuture<Map<OfflinePlayer, Backpack>> future = new CompletableFuture<>();
+		executeLoad(DatabaseExecutor.Priority.LOAD, future, () -> {
+			final Map<OfflinePlayer, Backpack> loaded = new HashMap<>();
+			final Map<String, OfflinePlayer> toQuery = new HashMap<>();
+			for(OfflinePlayer player : players)
+			{
+				final String uuid = getPlayerFormattedUUID(player);
+				final SaveQueue.Entry queued = (saveQueue != null) ? saveQueue.getPending(uuid) : null;
+				if(queued != null)
+				{ // The queued state is newer than the one in the database
+					Backpack backpack = makeBackpack(player, queued.data, queued.usedSerializer, queued.backpack.getOwnerID());
+					if(backpack != null) loaded.put(player, backpack);
+				}
+				else toQuery.put(uuid, player);
+			}
+			final List<String> uuids = new ArrayList<>(toQuery.keySet());
+			try(Connection conn = getConnection())
+			{
+				for(int start = 0; start < uuids.size(); start += BULK_LOAD_CHUNK_SIZE)
+				{
+					final List<String> chunk = uuids.subList(start, Math.min(uuids.size(), start + BULK_LOAD_CHUNK_SIZE));
+					try(PreparedStatement ps = conn.prepareStatement(queryGetBPs.replace("(?)", "(" + parameterList("?", chunk.size()) + ")")))
 					{
-						bpID = -1;
-						version = 0;
-						data = null;
+						for(int i = 0; i < chunk.size(); i++)
+						{
+							ps.setString(i + 1, chunk.get(i));
+						}
+						try(ResultSet rs = ps.executeQuery())
+						{
+							while(rs.next())
+							{
+								final String uuid = rs.getString(fieldPlayerUUID).toLowerCase(Locale.ROOT); // The formatted uuids are lower case, the stored ones might not be
+								final OfflinePlayer player = toQuery.get(uuid);
+								if(player == null) continue;
+								final int bpID = rs.getInt(fieldBpOwner);
+								playerRegistry.put(uuid, bpID, null);
+								Backpack backpack = makeBackpack(player, rs.getBytes(fieldBpIts), rs.getInt(fieldBpVersion), bpID);
+								if(backpack != null) loaded.put(player, backpack);
+							}
+						}
 					}
 				}
+			}
+			catch(SQLException e)
+			{ // The backpacks of the chunks that have been loaded before the error still get delivered
+				e.printStackTrace();
+			}
+			future.complete(loaded);
+		});
+		return future;
+	}
 
-				ItemStack[] its = itsSerializer.deserialize(data, version);
-				final Backpack backpack = (its != null) ? new Backpack(player, its, bpID) : null;
-				plugin.getServer().getScheduler().runTask(plugin, () -> {
-					if(backpack != null)
+	/**
+	 * Writes a batch of queued backpacks to the database. Used by the {@link SaveQueue}.
+	 *
+	 * @param batch The backpacks to be written.
+	 * @return False if the batch could not be written. Nothing of the batch has been written in that case.
+	 */
+	boolean writeBatch(final @NotNull List<SaveQueue.Entry> batch)
+	{
+		try(Connection connection = getConnection())
+		{
+			connection.setAutoCommit(false);
+			try(PreparedStatement psUpdate = connection.prepareStatement(queryUpdateBp); PreparedStatement psInsert = connection.prepareStatement(queryInsertBp))
+			{
+				boolean inserts = false, updates = false;
+				final Map<SaveQueue.Entry, Integer> newIDs = new HashMap<>();
+				for(SaveQueue.Entry entry : batch)
+				{
+					int id = entry.backpack.getOwnerID();
+					if(id <= 0)
 					{
-						callback.onResult(backpack);
+						id = getPlayerID(connection, entry.ownerUUID);
+						if(id <= 0)
+						{
+							plugin.getLogger().warning("Failed saving backpack for: " + entry.ownerName + " (Unable to get players ID from database)");
+							backupFailedSave(entry.backpack, entry.ownerUUID, entry.usedSerializer, entry.data);
+							continue;
+						}
+						psInsert.setInt(1, id);
+						psInsert.setBytes(2, entry.data);
+						psInsert.setInt(3, entry.usedSerializer);
+						psInsert.addBatch();
+						inserts = true;
+						newIDs.put(entry, id);
 					}
 					else
 					{
-						callback.onFail();
+						psUpdate.setBytes(1, entry.data);
+						psUpdate.setInt(2, entry.usedSerializer);
+						psUpdate.setInt(3, id);
+						psUpdate.addBatch();
+						updates = true;
 					}
-				});
+				}
+				if(inserts) psInsert.executeBatch();
+				if(updates) psUpdate.executeBatch();
+				connection.commit();
+				// The ids are only set once the rows exist, a batch that has been rolled back gets inserted again on the next try
+				newIDs.forEach((entry, newID) -> mainThreadExecutor.executeOrDiscard(() -> entry.backpack.setOwnerID(newID)));
+				return true;
 			}
 			catch(SQLException e)
 			{
-				e.printStackTrace();
-				plugin.getServer().getScheduler().runTask(plugin, callback::onFail);
+				connection.rollback();
+				throw e;
 			}
-		});
+			finally
+			{
+				connection.setAutoCommit(true);
+			}
+		}
+		catch(SQLException e)
+		{
+			plugin.getLogger().warning("Failed to save " + batch.size() + " backpacks in database! Error: " + e.getMessage());
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	@Override
+	public void collectStatistics(final @NotNull Map<String, Object> statistics)
+	{
+		super.collectStatistics(statistics);
+		dbExecutor.collectStatistics(statistics);
+		if(saveQueue != null) saveQueue.collectStatistics(statistics);
+		playerRegistry.collectStatistics(statistics);
+	}
+
+	@Override
+	public @NotNull List<SerializedBackpack> sampleBackpacks(final int count)
+	{
+		List<SerializedBackpack> samples = new ArrayList<>(count);
+		try(Connection connection = getConnection(); PreparedStatement ps = connection.prepareStatement(querySampleBPs))
+		{
+			ps.setInt(1, count);
+			try(ResultSet rs = ps.executeQuery())
+			{
+				while(rs.next())
+				{
+					byte[] data = rs.getBytes(fieldBpIts);
+					if(data != null) samples.add(new SerializedBackpack(data, rs.getInt(fieldBpVersion)));
+				}
+			}
+		}
+		catch(SQLException e)
+		{
+			e.printStackTrace();
+		}
+		return samples;
+	}
+
+	//region Compression dictionary
+	@Override
+	protected @NotNull Collection<byte[]> readDictionaries() throws Exception
+	{
+		List<byte[]> dictionaries = new ArrayList<>();
+		try(Connection connection = getConnection(); PreparedStatement ps = connection.prepareStatement("SELECT `value` FROM `" + METADATA_TABLE + "` WHERE `key` LIKE ?;"))
+		{
+			ps.setString(1, METADATA_KEY_DICTIONARY + "%");
+			try(ResultSet rs = ps.executeQuery())
+			{
+				while(rs.next())
+				{
+					dictionaries.add(Base64.getDecoder().decode(rs.getString(1)));
+				}
+			}
+		}
+		return dictionaries;
 	}
-	
+
+	@Override
+	protected @Nullable Integer readActiveDictionary() throws Exception
+	{
+		try(Connection connection = getConnection(); PreparedStatement ps = connection.prepareStatement("SELECT `value` FROM `" + METADATA_TABLE + "` WHERE `key`=?;"))
+		{
+			ps.setString(1, METADATA_KEY_ACTIVE_DICTIONARY);
+			try(ResultSet rs = ps.executeQuery())
+			{
+				if(rs.next()) return Integer.parseUnsignedInt(rs.getString(1), 16);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected void writeDictionary(final int id, final @NotNull byte[] dictionary, final boolean active) throws Exception
+	{
+		@Language("SQL") String query = "REPLACE INTO `" + METADATA_TABLE + "` (`key`,`value`) VALUES (?,?);";
+		try(Connection connection = getConnection())
+		{
+			DBTools.runStatement(connection, query, METADATA_KEY_DICTIONARY + Integer.toHexString(id), Base64.getEncoder().encodeToString(dictionary));
+			if(active) DBTools.runStatement(connection, query, METADATA_KEY_ACTIVE_DICTIONARY, Integer.toHexString(id));
+		}
+	}
+	//endregion
+
 	@Override
 	public void syncCooldown(Player player, long cooldownTime)
 	{
@@ -369,20 +932,20 @@ public void syncCooldown(Player player, long cooldownTime)
 	@Override
 	public void getCooldown(final Player player, final Callback<Long> callback)
 	{
-		plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+		dbExecutor.execute(DatabaseExecutor.Priority.LOAD, () -> {
 			try(Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(queryGetCooldown))
 			{
 				ps.setString(1, getPlayerFormattedUUID(player));
 				try(ResultSet rs = ps.executeQuery())
 				{
 					final long time = (rs.next()) ? rs.getTimestamp(fieldCdTime).getTime() : 0;
-					plugin.getServer().getScheduler().runTask(plugin, () -> callback.onResult(time));
+					mainThreadExecutor.execute(() -> callback.onResult(time));
 				}
 			}
 			catch(SQLException e)
 			{
 				e.printStackTrace();
-				plugin.getServer().getScheduler().runTask(plugin, () -> callback.onResult(0L));
+				mainThreadExecutor.execute(() -> callback.onResult(0L));
 			}
 		});
 	}
@@ -23,16 +23,18 @@
 import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
 import at.pcgamingfreaks.Version;
 
-import org.bukkit.Bukkit;
-import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
 
 public class SQLite extends SQL
 {
@@ -76,6 +78,28 @@ protected void updateQuerysForDialect()
 		queryDeleteOldBackpacks = "DELETE FROM {TableBackpacks} WHERE {FieldBPLastUpdate} < DATE('now', '-{VarMaxAge} days')";
 		queryUpdateBp = queryUpdateBp.replaceAll("\\{NOW}", "DATE('now')");
 		queryUpdatePlayerAdd = "INSERT OR IGNORE INTO {TablePlayers} ({FieldName},{FieldUUID}) VALUES (?,?);";
+		querySampleBPs = querySampleBPs.replace("RAND()", "RANDOM()");
+	}
+
+	@Override
+	protected int getMaxConnections()
+	{
+		return 1; // SQLite only uses a single connection
+	}
+
+	@Override
+	protected long getLastUpdate(final @NotNull ResultSet rs) throws SQLException
+	{
+		String lastUpdate = rs.getString(fieldBpLastUpdate); // Stored as text (YYYY-MM-DD) by SQLite
+		if(lastUpdate == null) return -1;
+		try
+		{
+			return Date.valueOf(lastUpdate.trim()).getTime();
+		}
+		catch(IllegalArgumentException ignored)
+		{
+			return -1;
+		}
 	}
 
 	@SuppressWarnings("SqlResolve")
@@ -123,11 +147,25 @@ protected void checkDB()
 	}
 
 	@Override
-	public void updatePlayer(final Player player)
+	protected void updatePlayer(final @NotNull Connection connection, final @NotNull String uuid, final @NotNull String name) throws SQLException
+	{
+		DBTools.runStatement(connection, queryUpdatePlayerAdd, name, uuid);
+		DBTools.runStatement(connection, "UPDATE `" + tablePlayers + "` SET `" + fieldPlayerName + "`=? WHERE `" + fieldPlayerUUID + "`=?;", name, uuid);
+	}
+
+	@Override
+	protected void updatePlayers(final @NotNull Connection connection, final @NotNull List<Map.Entry<String, String>> players) throws SQLException
 	{
-		Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-			runStatement(queryUpdatePlayerAdd, player.getName(), getPlayerFormattedUUID(player));
-			runStatement("UPDATE `" + tablePlayers + "` SET `" + fieldPlayerName + "`=? WHERE `" + fieldPlayerUUID + "`=?;", player.getName(), getPlayerFormattedUUID(player));
-		});
+		super.updatePlayers(connection, players); // Only adds the new players, the names get updated in one batch
+		try(PreparedStatement ps = connection.prepareStatement("UPDATE `" + tablePlayers + "` SET `" + fieldPlayerName + "`=? WHERE `" + fieldPlayerUUID + "`=?;"))
+		{
+			for(Map.Entry<String, String> player : players)
+			{
+				ps.setString(1, player.getValue());
+				ps.setString(2, player.getKey());
+				ps.addBatch();
+			}
+			ps.executeBatch();
+		}
 	}
 }
\ No newline at end of file
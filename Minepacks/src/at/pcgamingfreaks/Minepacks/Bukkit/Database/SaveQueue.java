@@ -0,0 +1,195 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import at.pcgamingfreaks.Minepacks.Bukkit.Backpack;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind queue for the SQL databases. Only the latest state of every backpack is kept and written to the database in batches.
+ * Backpacks stay in the queue till their batch has been committed, so loads use the queued state till then.
+ */
+class SaveQueue
+{
+	private static final int MAX_FAILED_WRITES = 3;
+
+	private final SQL database;
+	private final Map<String, Entry> pending = new ConcurrentHashMap<>();
+	private final Object flushLock = new Object(); // Only one flush at a time
+	private final AtomicBoolean earlyFlushScheduled = new AtomicBoolean(false);
+	private final int maxQueueSize;
+	private final BukkitTask flushTask;
+	private final AtomicLong lastFlushDuration = new AtomicLong(), totalFlushDuration = new AtomicLong(), flushes = new AtomicLong(), failedFlushes = new AtomicLong();
+	private final AtomicLong writtenBackpacks = new AtomicLong(), coalescedSaves = new AtomicLong(), givenUpSaves = new AtomicLong();
+
+	SaveQueue(final @NotNull SQL database, final long flushInterval, final int maxQueueSize)
+	{
+		this.database = database;
+		this.maxQueueSize = maxQueueSize;
+		flushTask = Bukkit.getScheduler().runTaskTimer(database.plugin, () -> database.dbExecutor.execute(DatabaseExecutor.Priority.SAVE, this::flush), flushInterval, flushInterval);
+	}
+
+	public void add(final @NotNull Entry entry)
+	{
+		if(pending.put(entry.ownerUUID, entry) != null) coalescedSaves.incrementAndGet();
+		if(pending.size() >= maxQueueSize && database.asyncSave && earlyFlushScheduled.compareAndSet(false, true))
+		{
+			database.dbExecutor.execute(DatabaseExecutor.Priority.SAVE, () -> {
+				earlyFlushScheduled.set(false);
+				flush();
+			});
+		}
+	}
+
+	/**
+	 * Gets the queued, not yet written, state of a backpack.
+	 *
+	 * @param ownerUUID The formatted uuid of the owner of the backpack.
+	 * @return The queued save. null if there is no save waiting for the backpack.
+	 */
+	public @Nullable Entry getPending(final @NotNull String ownerUUID)
+	{
+		return pending.get(ownerUUID);
+	}
+
+	/**
+	 * Writes the queued backpacks to the database. If the batch fails, the backpacks are written one by one, so a single backpack that can't be written doesn't block the others.
+	 * Backpacks that still fail while others can be written, or that have failed {@link #MAX_FAILED_WRITES} times, are written to the backups folder and removed from the queue.
+	 *
+	 * @return False if backpacks could not be written and stay in the queue.
+	 */
+	public boolean flush()
+	{
+		synchronized(flushLock)
+		{
+			if(pending.isEmpty()) return true;
+			long start = System.nanoTime();
+			List<Entry> batch = new ArrayList<>(pending.values());
+			if(database.writeBatch(batch)) removeWritten(batch);
+			else
+			{
+				failedFlushes.incrementAndGet();
+				if(!writeSingle(batch)) return false;
+			}
+			long duration = System.nanoTime() - start;
+			lastFlushDuration.set(duration);
+			totalFlushDuration.addAndGet(duration);
+			flushes.incrementAndGet();
+			return true;
+		}
+	}
+
+	/**
+	 * Writes the backpacks of a failed batch one by one.
+	 *
+	 * @return False if none of the backpacks could be written (e.g. the database is not reachable) and not all of them have been given up on.
+	 */
+	private boolean writeSingle(final @NotNull List<Entry> batch)
+	{
+		List<Entry> failed = new ArrayList<>();
+		for(Entry entry : batch)
+		{ // A batch with a single backpack doesn't have to be written again
+			if(batch.size() > 1 && database.writeBatch(Collections.singletonList(entry))) removeWritten(Collections.singletonList(entry));
+			else failed.add(entry);
+		}
+		boolean databaseReachable = failed.size() < batch.size();
+		for(Entry entry : failed)
+		{
+			if(databaseReachable || ++entry.failedWrites >= MAX_FAILED_WRITES) giveUp(entry);
+		}
+		return databaseReachable || failed.stream().allMatch(entry -> entry.failedWrites >= MAX_FAILED_WRITES);
+	}
+
+	private void giveUp(final @NotNull Entry entry)
+	{
+		if(!pending.remove(entry.ownerUUID, entry)) return; // A newer save of the backpack has been queued in the meantime
+		database.plugin.getLogger().warning("Failed to save the backpack of " + entry.ownerName + " (" + entry.ownerUUID + "), it has been removed from the save queue and written to the backups folder!");
+		database.backupFailedSave(entry.backpack, entry.ownerUUID, entry.usedSerializer, entry.data);
+		givenUpSaves.incrementAndGet();
+	}
+
+	private void removeWritten(final @NotNull List<Entry> written)
+	{
+		for(Entry entry : written)
+		{ // Saves that have been queued while the batch was written are newer and stay in the queue
+			pending.remove(entry.ownerUUID, entry);
+		}
+		writtenBackpacks.addAndGet(written.size());
+	}
+
+	/**
+	 * Stops the periodic flushes. The remaining backpacks have to be written with {@link #flush()}.
+	 */
+	public void close()
+	{
+		flushTask.cancel();
+	}
+
+	public int getQueueSize()
+	{
+		return pending.size();
+	}
+
+	public @NotNull List<Entry> getQueued()
+	{
+		return new ArrayList<>(pending.values());
+	}
+
+	void collectStatistics(final @NotNull Map<String, Object> statistics)
+	{
+		long flushCount = flushes.get();
+		statistics.put("Save queue size", pending.size());
+		statistics.put("Save queue flushes", flushCount);
+		statistics.put("Save queue failed flushes", failedFlushes.get());
+		statistics.put("Save queue written backpacks", writtenBackpacks.get());
+		statistics.put("Save queue coalesced saves", coalescedSaves.get());
+		statistics.put("Save queue backed up saves", givenUpSaves.get());
+		statistics.put("Save queue last flush (ms)", lastFlushDuration.get() / 1000000.0);
+		statistics.put("Save queue average flush (ms)", (flushCount > 0) ? totalFlushDuration.get() / (double) flushCount / 1000000.0 : 0);
+	}
+
+	static final class Entry
+	{
+		final Backpack backpack;
+		final String ownerUUID, ownerName;
+		final byte[] data;
+		final int usedSerializer;
+		int failedWrites = 0; // Only accessed while flushing
+
+		Entry(final @NotNull Backpack backpack, final @NotNull String ownerUUID, final @NotNull byte[] data, final int usedSerializer)
+		{
+			this.backpack = backpack;
+			this.ownerUUID = ownerUUID;
+			this.ownerName = backpack.getOwner().getName();
+			this.data = data;
+			this.usedSerializer = usedSerializer;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.jetbrains.annotations.NotNull;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The stored form of a backpack, the serialized inventory and the version of the serializer that has been used to create it.
+ */
+public final class SerializedBackpack
+{
+	@Getter private final byte[] data;
+	@Getter private final int version;
+	private int hash = 0;
+
+	public SerializedBackpack(final @NotNull byte[] data, final int version)
+	{
+		this.data = data;
+		this.version = version;
+	}
+
+	/**
+	 * Calculates a checksum of the stored data. Used to detect if a backpack has to be written again.
+	 *
+	 * @return The checksum of the version and the data.
+	 */
+	public long getChecksum()
+	{
+		return checksum(data, version);
+	}
+
+	@Override
+	public boolean equals(final Object other)
+	{
+		if(this == other) return true;
+		if(!(other instanceof SerializedBackpack)) return false;
+		SerializedBackpack stored = (SerializedBackpack) other;
+		return version == stored.version && hashCode() == stored.hashCode() && Arrays.equals(data, stored.data);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		if(hash == 0) hash = 31 * Arrays.hashCode(data) + version;
+		return hash;
+	}
+
+	public static long checksum(final @NotNull byte[] data, final int version)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(version);
+		crc.update(data, 0, data.length);
+		return crc.getValue();
+	}
+}
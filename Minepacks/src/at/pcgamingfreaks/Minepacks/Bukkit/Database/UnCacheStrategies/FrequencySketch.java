@@ -0,0 +1,84 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+/**
+ * Count-min sketch with 4 bit counters. All counters get halved periodically, so the frequency of backpacks that are no longer used decays.
+ */
+final class FrequencySketch
+{
+	private static final int DEPTH = 4, MAX_COUNT = 15;
+	private static final int[] SEEDS = { 0x97cb3127, 0x2f0b3a49, 0x5c4c2bd1, 0x3f8a5d6b };
+
+	private final byte[] table;
+	private final int mask, sampleSize;
+	private int additions = 0;
+
+	FrequencySketch(final int maxSize)
+	{
+		int width = Integer.highestOneBit(Math.max(16, maxSize) * 2 - 1);
+		table = new byte[width * DEPTH];
+		mask = width - 1;
+		sampleSize = Math.max(16, maxSize) * 10;
+	}
+
+	private int index(final int hash, final int row)
+	{
+		int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+		return row * (mask + 1) + ((h ^ (h >>> 16)) & mask);
+	}
+
+	void increment(final @NotNull UUID key)
+	{
+		int hash = key.hashCode();
+		boolean incremented = false;
+		for(int row = 0; row < DEPTH; row++)
+		{
+			int index = index(hash, row);
+			if(table[index] < MAX_COUNT)
+			{
+				table[index]++;
+				incremented = true;
+			}
+		}
+		if(incremented && ++additions >= sampleSize) reset();
+	}
+
+	int frequency(final @NotNull UUID key)
+	{
+		int hash = key.hashCode(), frequency = MAX_COUNT;
+		for(int row = 0; row < DEPTH; row++)
+		{
+			frequency = Math.min(frequency, table[index(hash, row)]);
+		}
+		return frequency;
+	}
+
+	private void reset()
+	{
+		for(int i = 0; i < table.length; i++)
+		{
+			table[i] >>= 1;
+		}
+		additions /= 2;
+	}
+}
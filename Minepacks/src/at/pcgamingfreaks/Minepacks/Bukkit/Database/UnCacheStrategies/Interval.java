@@ -17,38 +17,13 @@
 
 package at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies;
 
-import at.pcgamingfreaks.Minepacks.Bukkit.Backpack;
 import at.pcgamingfreaks.Minepacks.Bukkit.Database.Database;
 import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
 
-import org.bukkit.Bukkit;
-
-public class Interval extends UnCacheStrategie implements Runnable
+public class Interval extends TimedUnCacheStrategie
 {
-	private final int taskID;
-
 	public Interval(Database cache)
 	{
-		super(cache);
-		taskID = Bukkit.getScheduler().scheduleSyncRepeatingTask(Minepacks.getInstance(), this, Minepacks.getInstance().getConfiguration().getUnCacheDelay(), Minepacks.getInstance().getConfiguration().getUnCacheInterval());
-	}
-
-	@Override
-	public void run()
-	{
-		for(Backpack backpack : cache.getLoadedBackpacks())
-		{
-			if(!backpack.getOwner().isOnline() && !backpack.isOpen())
-			{
-				this.cache.unloadBackpack(backpack);
-			}
-		}
-	}
-
-	@Override
-	public void close()
-	{
-		Bukkit.getScheduler().cancelTask(taskID);
-		super.close();
+		super(cache, Minepacks.getInstance().getConfiguration().getUnCacheInterval());
 	}
 }
\ No newline at end of file
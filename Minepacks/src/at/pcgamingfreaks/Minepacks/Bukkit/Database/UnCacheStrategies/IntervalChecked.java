@@ -17,42 +17,13 @@
 
 package at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies;
 
-import at.pcgamingfreaks.Minepacks.Bukkit.Backpack;
 import at.pcgamingfreaks.Minepacks.Bukkit.Database.Database;
 import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
 
-import org.bukkit.Bukkit;
-
-public class IntervalChecked extends UnCacheStrategie implements Runnable
+public class IntervalChecked extends TimedUnCacheStrategie
 {
-	private final long delay;
-	private final int taskID;
-
 	public IntervalChecked(Database cache)
 	{
-		super(cache);
-		long delay = Minepacks.getInstance().getConfiguration().getUnCacheDelay();
-		taskID = Bukkit.getScheduler().scheduleSyncRepeatingTask(Minepacks.getInstance(), this, delay, Minepacks.getInstance().getConfiguration().getUnCacheInterval());
-		this.delay = delay * 50L;
-	}
-
-	@Override
-	public void run()
-	{
-		long currentTime = System.currentTimeMillis() - delay;
-		for(Backpack backpack : cache.getLoadedBackpacks())
-		{
-			if(!backpack.getOwner().isOnline() && backpack.getOwner().getPlayer().getLastPlayed() < currentTime && !backpack.isOpen())
-			{
-				this.cache.unloadBackpack(backpack);
-			}
-		}
-	}
-
-	@Override
-	public void close()
-	{
-		Bukkit.getScheduler().cancelTask(taskID);
-		super.close();
+		super(cache, Minepacks.getInstance().getConfiguration().getUnCacheDelay());
 	}
 }
\ No newline at end of file
@@ -27,6 +27,7 @@
 import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.jetbrains.annotations.NotNull;
 
 public class OnDisconnect extends UnCacheStrategie implements Listener
 {
@@ -47,6 +48,16 @@ public void playerLeaveEvent(PlayerQuitEvent event)
 		}
 	}
 
+	@Override
+	public void onBackpackClosed(final @NotNull Backpack backpack)
+	{ // The backpack was still open when the owner disconnected
+		if(!backpack.getOwner().isOnline())
+		{
+			backpack.save();
+			cache.unloadBackpack(backpack);
+		}
+	}
+
 	@Override
 	public void close()
 	{
@@ -17,57 +17,13 @@
 
 package at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies;
 
-import at.pcgamingfreaks.Minepacks.Bukkit.Backpack;
 import at.pcgamingfreaks.Minepacks.Bukkit.Database.Database;
 import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
 
-import org.bukkit.Bukkit;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.EventPriority;
-import org.bukkit.event.HandlerList;
-import org.bukkit.event.Listener;
-import org.bukkit.event.player.PlayerQuitEvent;
-import org.bukkit.scheduler.BukkitRunnable;
-
-public class OnDisconnectDelayed extends UnCacheStrategie implements Listener
+public class OnDisconnectDelayed extends TimedUnCacheStrategie
 {
-	private final long delay;
-
 	public OnDisconnectDelayed(Database cache)
 	{
-		super(cache);
-		delay = Minepacks.getInstance().getConfiguration().getUnCacheDelay();
-		Bukkit.getPluginManager().registerEvents(this, Minepacks.getInstance());
-	}
-
-	@EventHandler(priority = EventPriority.MONITOR)
-	public void playerLeaveEvent(PlayerQuitEvent event)
-	{
-		final Backpack backpack = cache.getBackpack(event.getPlayer());
-		if(backpack != null) // We only uncache unmarried player.
-		{
-			new BukkitRunnable()
-			{
-				@Override
-				public void run()
-				{
-					if(!backpack.isOpen())
-					{
-						backpack.save();
-						cache.unloadBackpack(backpack);
-					}
-					else
-					{
-						this.runTaskLater(Minepacks.getInstance(), delay);
-					}
-				}
-			}.runTaskLater(Minepacks.getInstance(), delay);
-		}
-	}
-
-	@Override
-	public void close()
-	{
-		HandlerList.unregisterAll(this);
+		super(cache, Minepacks.getInstance().getConfiguration().getUnCacheDelay());
 	}
 }
\ No newline at end of file
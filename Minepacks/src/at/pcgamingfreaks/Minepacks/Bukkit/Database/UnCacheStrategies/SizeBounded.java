@@ -0,0 +1,177 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies;
+
+import at.pcgamingfreaks.Minepacks.Bukkit.Backpack;
+import at.pcgamingfreaks.Minepacks.Bukkit.Database.Database;
+import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
+
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Limits the amount of cached backpacks with a W-TinyLFU policy.
+ * New backpacks enter a small LRU window. Backpacks leaving the window only stay in the cache if they are used more often than the backpack that would have to make room for them.
+ * This way a lot of backpacks loaded only once (e.g. by a plugin scanning all backpacks) don't push out the backpacks that are used frequently.
+ * Backpacks of online players and open backpacks are never removed from the cache.
+ */
+public class SizeBounded extends UnCacheStrategie implements Runnable
+{
+	private final int maxSize, windowSize, protectedSize;
+	private final FrequencySketch sketch;
+	private final LinkedHashMap<UUID, Backpack> window = new LinkedHashMap<>(), probation = new LinkedHashMap<>(), protectedSegment = new LinkedHashMap<>();
+	private final int taskID;
+
+	public SizeBounded(Database cache)
+	{
+		super(cache);
+		maxSize = Minepacks.getInstance().getConfiguration().getUnCacheMaxSize();
+		windowSize = Math.max(1, maxSize / 100);
+		protectedSize = (maxSize - windowSize) * 4 / 5;
+		sketch = new FrequencySketch(maxSize);
+		// Backpacks that could not be removed because their owner was online get removed once the owner is offline
+		taskID = Bukkit.getScheduler().scheduleSyncRepeatingTask(Minepacks.getInstance(), this, Minepacks.getInstance().getConfiguration().getUnCacheDelay(), Minepacks.getInstance().getConfiguration().getUnCacheInterval());
+	}
+
+	@Override
+	public synchronized void onBackpackLoaded(final @NotNull Backpack backpack)
+	{
+		UUID key = backpack.getOwner().getUniqueId();
+		remove(key);
+		sketch.increment(key);
+		window.put(key, backpack);
+		evict();
+	}
+
+	@Override
+	public synchronized void onBackpackAccessed(final @NotNull Backpack backpack)
+	{
+		UUID key = backpack.getOwner().getUniqueId();
+		sketch.increment(key);
+		Backpack cached;
+		if((cached = window.remove(key)) != null) window.put(key, cached);
+		else if((cached = protectedSegment.remove(key)) != null) protectedSegment.put(key, cached);
+		else if((cached = probation.remove(key)) != null)
+		{ // Used again, promote it to the protected segment
+			protectedSegment.put(key, cached);
+			while(protectedSegment.size() > protectedSize)
+			{
+				Map.Entry<UUID, Backpack> demoted = pollFirst(protectedSegment);
+				probation.put(demoted.getKey(), demoted.getValue());
+			}
+		}
+	}
+
+	@Override
+	public synchronized void onBackpackUnloaded(final @NotNull Backpack backpack)
+	{
+		remove(backpack.getOwner().getUniqueId());
+	}
+
+	@Override
+	public synchronized void run()
+	{
+		evict();
+	}
+
+	private @Nullable Backpack remove(final @NotNull UUID key)
+	{
+		Backpack removed = window.remove(key);
+		if(removed == null) removed = probation.remove(key);
+		if(removed == null) removed = protectedSegment.remove(key);
+		return removed;
+	}
+
+	private int size()
+	{
+		return window.size() + probation.size() + protectedSegment.size();
+	}
+
+	private void evict()
+	{
+		while(window.size() > windowSize)
+		{ // Backpacks leaving the window have to compete with the least recently used backpack of the probation segment
+			Map.Entry<UUID, Backpack> candidate = pollFirst(window);
+			probation.put(candidate.getKey(), candidate.getValue());
+			if(size() > maxSize) admit(candidate);
+		}
+		if(size() > maxSize)
+		{ // Backpacks that couldn't be removed before
+			trim(probation);
+			trim(protectedSegment);
+			trim(window);
+		}
+	}
+
+	private void admit(final @NotNull Map.Entry<UUID, Backpack> candidate)
+	{
+		Map.Entry<UUID, Backpack> victim = null;
+		for(Map.Entry<UUID, Backpack> entry : probation.entrySet())
+		{
+			if(!entry.getKey().equals(candidate.getKey()) && canUnload(entry.getValue()))
+			{
+				victim = entry;
+				break;
+			}
+		}
+		if(victim == null) unload(candidate);
+		else if(sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey()) || !canUnload(candidate.getValue())) unload(victim);
+		else unload(candidate);
+	}
+
+	private void trim(final @NotNull LinkedHashMap<UUID, Backpack> segment)
+	{
+		for(Map.Entry<UUID, Backpack> entry : new ArrayList<>(segment.entrySet()))
+		{
+			if(size() <= maxSize) return;
+			unload(entry);
+		}
+	}
+
+	private static boolean canUnload(final @NotNull Backpack backpack)
+	{
+		return !backpack.getOwner().isOnline() && !backpack.isOpen();
+	}
+
+	private void unload(final @NotNull Map.Entry<UUID, Backpack> entry)
+	{
+		Backpack backpack = entry.getValue();
+		if(!canUnload(backpack) || remove(entry.getKey()) == null) return;
+		backpack.save();
+		cache.unloadBackpack(backpack);
+	}
+
+	private static @NotNull Map.Entry<UUID, Backpack> pollFirst(final @NotNull LinkedHashMap<UUID, Backpack> map)
+	{
+		Iterator<Map.Entry<UUID, Backpack>> iterator = map.entrySet().iterator();
+		Map.Entry<UUID, Backpack> first = iterator.next();
+		Map.Entry<UUID, Backpack> copy = new AbstractMap.SimpleImmutableEntry<>(first);
+		iterator.remove();
+		return copy;
+	}
+
+	@Override
+	public void close()
+	{
+		Bukkit.getScheduler().cancelTask(taskID);
+		super.close();
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies;
+
+import at.pcgamingfreaks.Minepacks.Bukkit.Backpack;
+import at.pcgamingfreaks.Minepacks.Bukkit.Database.Database;
+import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
+
+import org.bukkit.Bukkit;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Uncaches the backpacks of offline players once they haven't been used for a given time.
+ * The expiry of every backpack is tracked in a timing wheel, which gets updated on quit, access and close, so a tick only has to look at the backpacks that expire.
+ */
+public abstract class TimedUnCacheStrategie extends UnCacheStrategie implements Listener, Runnable
+{
+	private static final int WHEEL_SIZE = 1024, TICKS_PER_STEP = 20; // One step per second, a rotation of the wheel takes about 17 minutes
+
+	private final TimingWheel<Backpack> wheel = new TimingWheel<>(WHEEL_SIZE);
+	private final long delay;
+	private final int taskID;
+
+	/**
+	 * @param cache The database.
+	 * @param delay The time in ticks after which unused backpacks of offline players get uncached.
+	 */
+	protected TimedUnCacheStrategie(final @NotNull Database cache, final long delay)
+	{
+		super(cache);
+		this.delay = Math.max(1, delay / TICKS_PER_STEP);
+		taskID = Bukkit.getScheduler().scheduleSyncRepeatingTask(Minepacks.getInstance(), this, TICKS_PER_STEP, TICKS_PER_STEP);
+		Bukkit.getPluginManager().registerEvents(this, Minepacks.getInstance());
+	}
+
+	@Override
+	public synchronized void onBackpackLoaded(final @NotNull Backpack backpack)
+	{
+		if(!backpack.getOwner().isOnline()) wheel.schedule(backpack, delay);
+	}
+
+	@Override
+	public synchronized void onBackpackAccessed(final @NotNull Backpack backpack)
+	{
+		if(wheel.isScheduled(backpack)) wheel.schedule(backpack, delay);
+	}
+
+	@Override
+	public synchronized void onBackpackClosed(final @NotNull Backpack backpack)
+	{
+		if(!backpack.getOwner().isOnline()) wheel.schedule(backpack, delay);
+	}
+
+	@Override
+	public synchronized void onBackpackUnloaded(final @NotNull Backpack backpack)
+	{
+		wheel.cancel(backpack);
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void playerLeaveEvent(PlayerQuitEvent event)
+	{
+		Backpack backpack = cache.getBackpack(event.getPlayer());
+		if(backpack != null)
+		{
+			synchronized(this)
+			{
+				wheel.schedule(backpack, delay);
+			}
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void playerJoinEvent(PlayerJoinEvent event)
+	{
+		Backpack backpack = cache.getBackpack(event.getPlayer());
+		if(backpack != null)
+		{
+			synchronized(this)
+			{
+				wheel.cancel(backpack);
+			}
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		Iterable<Backpack> expired;
+		synchronized(this)
+		{
+			expired = wheel.advance();
+		}
+		for(Backpack backpack : expired)
+		{
+			// Online players get a new expiry when they quit, open backpacks when they get closed
+			if(backpack.getOwner().isOnline() || backpack.isOpen()) continue;
+			backpack.save();
+			cache.unloadBackpack(backpack);
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		Bukkit.getScheduler().cancelTask(taskID);
+		HandlerList.unregisterAll(this);
+		super.close();
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Hashed timing wheel. Every key is placed in the bucket of the tick it expires in, so advancing the wheel only touches the keys of one bucket.
+ * Delays longer than one rotation of the wheel are tracked with a round counter.
+ *
+ * @param <K> The type of the keys.
+ */
+final class TimingWheel<K>
+{
+	private final Set<K>[] buckets;
+	private final Map<K, Timer> timers = new HashMap<>();
+	private int cursor = 0;
+
+	@SuppressWarnings("unchecked")
+	TimingWheel(final int size)
+	{
+		buckets = new Set[size];
+		for(int i = 0; i < size; i++)
+		{
+			buckets[i] = new HashSet<>();
+		}
+	}
+
+	/**
+	 * Schedules the expiry of a key. An already scheduled expiry of the key gets replaced.
+	 *
+	 * @param key The key.
+	 * @param delay The amount of ticks till the key expires.
+	 */
+	void schedule(final @NotNull K key, long delay)
+	{
+		cancel(key);
+		delay = Math.max(1, delay);
+		int bucket = (int) ((cursor + delay) % buckets.length);
+		timers.put(key, new Timer(bucket, (delay - 1) / buckets.length));
+		buckets[bucket].add(key);
+	}
+
+	void cancel(final @NotNull K key)
+	{
+		Timer timer = timers.remove(key);
+		if(timer != null) buckets[timer.bucket].remove(key);
+	}
+
+	boolean isScheduled(final @NotNull K key)
+	{
+		return timers.containsKey(key);
+	}
+
+	/**
+	 * Advances the wheel by one tick.
+	 *
+	 * @return The keys that expired.
+	 */
+	@NotNull List<K> advance()
+	{
+		cursor = (cursor + 1) % buckets.length;
+		Set<K> bucket = buckets[cursor];
+		if(bucket.isEmpty()) return Collections.emptyList();
+		List<K> expired = new ArrayList<>();
+		Iterator<K> iterator = bucket.iterator();
+		while(iterator.hasNext())
+		{
+			K key = iterator.next();
+			Timer timer = timers.get(key);
+			if(timer.rounds > 0)
+			{
+				timer.rounds--;
+				continue;
+			}
+			iterator.remove();
+			timers.remove(key);
+			expired.add(key);
+		}
+		return expired;
+	}
+
+	private static final class Timer
+	{
+		final int bucket;
+		long rounds;
+
+		Timer(final int bucket, final long rounds)
+		{
+			this.bucket = bucket;
+			this.rounds = rounds;
+		}
+	}
+}
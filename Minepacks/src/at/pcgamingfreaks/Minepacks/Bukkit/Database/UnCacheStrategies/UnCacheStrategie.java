@@ -17,9 +17,12 @@
 
 package at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies;
 
+import at.pcgamingfreaks.Minepacks.Bukkit.Backpack;
 import at.pcgamingfreaks.Minepacks.Bukkit.Database.Database;
 import at.pcgamingfreaks.Minepacks.Bukkit.Minepacks;
 
+import org.jetbrains.annotations.NotNull;
+
 public abstract class UnCacheStrategie
 {
 	protected Database cache;
@@ -35,11 +38,40 @@ public static UnCacheStrategie getUnCacheStrategie(Database cache)
 		{
 			case "ondisconnect": return new OnDisconnect(cache);
 			case "ondisconnectdelayed": return new OnDisconnectDelayed(cache);
-			case "intervalChecked": return new IntervalChecked(cache);
+			case "intervalchecked": return new IntervalChecked(cache);
+			case "sizebounded": return new SizeBounded(cache);
 			case "interval": default: return new Interval(cache);
 		}
 	}
 
+	/**
+	 * Called when a backpack has been added to the cache.
+	 *
+	 * @param backpack The backpack that has been added.
+	 */
+	public void onBackpackLoaded(final @NotNull Backpack backpack) {}
+
+	/**
+	 * Called when a cached backpack is requested.
+	 *
+	 * @param backpack The backpack that has been requested.
+	 */
+	public void onBackpackAccessed(final @NotNull Backpack backpack) {}
+
+	/**
+	 * Called when the last player viewing a backpack has closed it.
+	 *
+	 * @param backpack The backpack that has been closed.
+	 */
+	public void onBackpackClosed(final @NotNull Backpack backpack) {}
+
+	/**
+	 * Called when a backpack has been removed from the cache.
+	 *
+	 * @param backpack The backpack that has been removed.
+	 */
+	public void onBackpackUnloaded(final @NotNull Backpack backpack) {}
+
 	public void close()
 	{
 		cache = null;
@@ -23,6 +23,7 @@
 import at.pcgamingfreaks.Bukkit.Util.Utils;
 import at.pcgamingfreaks.ConsoleColor;
 import at.pcgamingfreaks.Minepacks.Bukkit.API.Backpack;
+import at.pcgamingfreaks.Minepacks.Bukkit.API.BackpackSnapshot;
 import at.pcgamingfreaks.Minepacks.Bukkit.API.*;
 import at.pcgamingfreaks.Minepacks.Bukkit.Command.CommandManager;
 import at.pcgamingfreaks.Minepacks.Bukkit.Command.InventoryClearCommand;
@@ -52,8 +53,11 @@
 
 import java.io.File;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class Minepacks extends JavaPlugin implements MinepacksPlugin
 {
@@ -350,6 +354,24 @@ public void getBackpack(@NotNull final OfflinePlayer owner, @NotNull final Callb
 		database.getBackpack(owner, callback, createNewIfNotExists);
 	}
 
+	@Override
+	public @NotNull CompletableFuture<Backpack> getBackpack(@NotNull final OfflinePlayer owner, boolean createNewIfNotExists, boolean completeOnMainThread)
+	{
+		return database.getBackpackAsync(owner, createNewIfNotExists, completeOnMainThread).thenApply(backpack -> backpack);
+	}
+
+	@Override
+	public @NotNull CompletableFuture<Map<OfflinePlayer, Backpack>> getBackpacks(@NotNull final Collection<? extends OfflinePlayer> owners, boolean createNewIfNotExists, boolean completeOnMainThread)
+	{
+		return database.getBackpacksAsync(owners, createNewIfNotExists, completeOnMainThread).thenApply(Collections::unmodifiableMap);
+	}
+
+	@Override
+	public @NotNull CompletableFuture<BackpackSnapshot> getBackpackSnapshot(@NotNull final OfflinePlayer owner)
+	{
+		return database.getSnapshot(owner).thenApply(snapshot -> snapshot);
+	}
+
 	@Override
 	public MinepacksCommandManager getCommandManager()
 	{
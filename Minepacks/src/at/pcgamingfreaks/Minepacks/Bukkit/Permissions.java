@@ -34,6 +34,7 @@
 	public static final String UPDATE = BASE + "update";
 	public static final String RELOAD = BASE + "reload";
 	public static final String MIGRATE = BASE + "migrate";
+	public static final String DICTIONARY = BASE + "dictionary";
 	public static final String BACKUP = BASE + "backup";
 	public static final String RESTORE = BASE + "restore";
 	public static final String VERSION = BASE + "version";
@@ -0,0 +1,280 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackpackLogTest
+{
+	private static final Logger LOGGER = Logger.getLogger("BackpackLogTest");
+	private static final UUID PLAYER1 = UUID.fromString("00000000-0000-0000-0000-000000000001"), PLAYER2 = UUID.fromString("00000000-0000-0000-0000-000000000002");
+
+	@TempDir File folder;
+
+	private BackpackLog open(final long maxSegmentSize, final double compactionThreshold, final boolean memoryMapped, final long maxAge) throws IOException
+	{
+		return new BackpackLog(folder, LOGGER, maxSegmentSize, compactionThreshold, memoryMapped, maxAge);
+	}
+
+	private BackpackLog open() throws IOException
+	{
+		return open(1024 * 1024, 0.5, false, 0);
+	}
+
+	private File getSegmentFile(final int id)
+	{
+		return new File(folder, String.format("segment-%08d%s", id, BackpackLog.EXT));
+	}
+
+	private static int getRecordSize(final byte[] data)
+	{
+		return BackpackLog.RECORD_HEADER_SIZE + data.length + BackpackLog.CRC_SIZE;
+	}
+
+	private static byte[] data(final String content)
+	{
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void flipByte(final RandomAccessFile file, final long position) throws IOException
+	{
+		file.seek(position);
+		int value = file.read();
+		file.seek(position);
+		file.write(value ^ 0xFF);
+	}
+
+	private static void assertStored(final BackpackLog log, final UUID uuid, final byte[] data, final int version)
+	{
+		SerializedBackpack stored = log.read(uuid);
+		assertNotNull(stored, "The backpack of " + uuid + " should be stored");
+		assertArrayEquals(data, stored.getData(), "The stored data should not be changed");
+		assertEquals(version, stored.getVersion(), "The stored serializer version should not be changed");
+	}
+
+	@Test
+	public void testAppendAndRead() throws IOException
+	{
+		BackpackLog log = open();
+		assertNull(log.read(PLAYER1), "Nothing has been stored yet");
+		assertEquals(-1, log.getTimestamp(PLAYER1));
+		log.append(PLAYER1, 2, data("first"));
+		log.append(PLAYER2, 5, data("other"));
+		log.append(PLAYER1, 3, data("second"));
+		assertStored(log, PLAYER1, data("second"), 3);
+		assertStored(log, PLAYER2, data("other"), 5);
+		assertTrue(log.getTimestamp(PLAYER1) > 0, "The time of the save should be known");
+		assertEquals(2, log.getStoredUUIDs().size());
+		log.close();
+	}
+
+	@Test
+	public void testReopenFromFooter() throws IOException
+	{
+		BackpackLog log = open();
+		log.append(PLAYER1, 2, data("first"));
+		log.append(PLAYER2, 2, data("other"));
+		log.close();
+
+		log = open();
+		assertStored(log, PLAYER1, data("first"), 2);
+		assertStored(log, PLAYER2, data("other"), 2);
+		log.append(PLAYER1, 2, data("second")); // Has to get a newer sequence than the records of the old segment
+		log.close();
+
+		log = open();
+		assertStored(log, PLAYER1, data("second"), 2);
+		assertStored(log, PLAYER2, data("other"), 2);
+		log.close();
+	}
+
+	@Test
+	public void testEmptyActiveSegmentIsDeleted() throws IOException
+	{
+		BackpackLog log = open();
+		assertTrue(getSegmentFile(0).exists());
+		log.close();
+		assertFalse(getSegmentFile(0).exists(), "A segment without records should not be kept");
+	}
+
+	@Test
+	public void testMemoryMappedRead() throws IOException
+	{
+		BackpackLog log = open(1024 * 1024, 0.5, true, 0);
+		log.append(PLAYER1, 2, data("first"));
+		assertStored(log, PLAYER1, data("first"), 2); // Active segment, read from the channel
+		log.close();
+
+		log = open(1024 * 1024, 0.5, true, 0);
+		assertStored(log, PLAYER1, data("first"), 2); // Sealed segment, read from the mapped file
+		log.close();
+	}
+
+	@Test
+	public void testDamagedRecordInSealedSegment() throws IOException
+	{
+		BackpackLog log = open();
+		log.append(PLAYER1, 2, data("first"));
+		log.close();
+		try(RandomAccessFile file = new RandomAccessFile(getSegmentFile(0), "rw"))
+		{ // Flip a byte of the payload, the footer stays valid
+			flipByte(file, BackpackLog.RECORD_HEADER_SIZE);
+		}
+
+		log = open();
+		assertTrue(log.getStoredUUIDs().contains(PLAYER1), "The index is loaded from the footer without checking the records");
+		assertNull(log.read(PLAYER1), "A record with a wrong checksum should not be loaded");
+		log.close();
+	}
+
+	@Test
+	public void testRecoverUnsealedSegment() throws IOException
+	{
+		BackpackLog log = open();
+		log.append(PLAYER1, 2, data("first"));
+		log.append(PLAYER2, 2, data("other"));
+		log.close();
+		try(RandomAccessFile file = new RandomAccessFile(getSegmentFile(0), "rw"))
+		{ // Damage the magic of the footer, like a server that crashed before sealing the segment
+			flipByte(file, file.length() - 1);
+		}
+
+		log = open();
+		assertStored(log, PLAYER1, data("first"), 2);
+		assertStored(log, PLAYER2, data("other"), 2);
+		log.close();
+	}
+
+	@Test
+	public void testDiscardTornRecord() throws IOException
+	{
+		BackpackLog log = open();
+		log.append(PLAYER1, 2, data("first"));
+		log.append(PLAYER2, 2, data("other"));
+		log.close();
+		int firstRecordSize = getRecordSize(data("first"));
+		try(RandomAccessFile file = new RandomAccessFile(getSegmentFile(0), "rw"))
+		{ // The second record has only been written partially
+			file.setLength(firstRecordSize + getRecordSize(data("other")) / 2);
+		}
+
+		log = open();
+		assertStored(log, PLAYER1, data("first"), 2);
+		assertNull(log.read(PLAYER2), "A partially written record should be discarded");
+		log.close();
+	}
+
+	@Test
+	public void testDiscardRecordsFromCrcMismatch() throws IOException
+	{
+		BackpackLog log = open();
+		log.append(PLAYER1, 2, data("first"));
+		log.append(PLAYER2, 2, data("other"));
+		log.close();
+		int firstRecordSize = getRecordSize(data("first"));
+		try(RandomAccessFile file = new RandomAccessFile(getSegmentFile(0), "rw"))
+		{ // Damage the payload of the second record and the footer
+			flipByte(file, firstRecordSize + BackpackLog.RECORD_HEADER_SIZE);
+			flipByte(file, file.length() - 1);
+		}
+
+		log = open();
+		assertStored(log, PLAYER1, data("first"), 2);
+		assertNull(log.read(PLAYER2), "A record with a wrong checksum should be discarded while checking an unsealed segment");
+		log.close();
+
+		log = open(); // The checked segment has been sealed again
+		assertStored(log, PLAYER1, data("first"), 2);
+		assertNull(log.read(PLAYER2));
+		log.close();
+	}
+
+	@Test
+	public void testCompactOutdatedSegment() throws IOException
+	{
+		BackpackLog log = open(1, 0.5, false, 0); // Every record gets its own segment
+		log.append(PLAYER1, 2, data("first"));
+		log.append(PLAYER1, 2, data("second"));
+		log.append(PLAYER2, 2, data("other"));
+		assertEquals(3, log.getSegmentCount());
+		log.compact(Runnable::run);
+		assertEquals(1, log.getCompactions());
+		assertEquals(2, log.getSegmentCount(), "The segment with only the outdated record should be removed");
+		assertEquals(getRecordSize(data("first")), log.getReclaimedBytes());
+		assertFalse(getSegmentFile(0).exists());
+		assertStored(log, PLAYER1, data("second"), 2);
+		assertStored(log, PLAYER2, data("other"), 2);
+		log.close();
+	}
+
+	@Test
+	public void testCompactMovesLiveRecords() throws IOException
+	{
+		byte[] first = data("first-data"), other = data("other-data"), second = data("secondData");
+		BackpackLog log = open(getRecordSize(first) * 2, 0.75, false, 0); // Two records per segment
+		log.append(PLAYER1, 2, first);
+		log.append(PLAYER2, 2, other);
+		log.append(PLAYER1, 2, second); // Segment 0 is only half live now
+		log.compact(Runnable::run);
+		assertEquals(1, log.getCompactions());
+		assertFalse(getSegmentFile(0).exists(), "The compacted segment should be deleted");
+		assertTrue(getSegmentFile(2).exists(), "The live record should be moved to a new segment");
+		assertEquals(getRecordSize(first), log.getReclaimedBytes());
+		assertStored(log, PLAYER1, second, 2);
+		assertStored(log, PLAYER2, other, 2);
+		log.close();
+
+		log = open(getRecordSize(first) * 2, 0.75, false, 0);
+		assertStored(log, PLAYER1, second, 2);
+		assertStored(log, PLAYER2, other, 2);
+		log.close();
+	}
+
+	@Test
+	public void testCompactExpiredRecords() throws IOException, InterruptedException
+	{
+		BackpackLog log = open(1, 0.5, false, 1);
+		log.append(PLAYER1, 2, data("first"));
+		Thread.sleep(10);
+		log.append(PLAYER2, 2, data("other")); // Stays in the active segment, which never gets compacted
+		log.compact(Runnable::run);
+		assertNull(log.read(PLAYER1), "Expired backpacks should be removed");
+		assertStored(log, PLAYER2, data("other"), 2);
+		log.close();
+	}
+
+	@Test
+	public void testNothingToCompact() throws IOException
+	{
+		BackpackLog log = open();
+		log.append(PLAYER1, 2, data("first"));
+		log.compact(Runnable::run);
+		assertEquals(0, log.getCompactions(), "The active segment should never be compacted");
+		log.close();
+	}
+}
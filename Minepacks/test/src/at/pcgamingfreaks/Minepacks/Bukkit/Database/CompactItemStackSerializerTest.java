@@ -0,0 +1,136 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import static at.pcgamingfreaks.Minepacks.Bukkit.Database.TestItems.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactItemStackSerializerTest
+{
+	private final CompactItemStackSerializer serializer = new CompactItemStackSerializer(makeNBTSerializer());
+
+	/**
+	 * Builds a stream by hand. Integers are written as a single byte (a varint below 128), strings with their length in front and byte arrays as they are.
+	 */
+	private static byte[] stream(final Object... parts)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(Object part : parts)
+		{
+			if(part instanceof String)
+			{
+				byte[] bytes = ((String) part).getBytes(StandardCharsets.UTF_8);
+				out.write(bytes.length);
+				out.write(bytes, 0, bytes.length);
+			}
+			else if(part instanceof byte[]) out.write((byte[]) part, 0, ((byte[]) part).length);
+			else out.write((Integer) part);
+		}
+		return out.toByteArray();
+	}
+
+	private static int countOccurrences(final byte[] data, final String text)
+	{
+		byte[] search = text.getBytes(StandardCharsets.UTF_8);
+		int count = 0;
+		for(int i = 0; i <= data.length - search.length; i++)
+		{
+			if(Arrays.equals(Arrays.copyOfRange(data, i, i + search.length), search)) count++;
+		}
+		return count;
+	}
+
+	@Test
+	public void testRoundTrip() throws DataFormatException
+	{
+		ItemStack[] items = new ItemStack[54];
+		items[0] = item(Material.STONE, 64);
+		items[1] = item(Material.DIRT, 1);
+		items[7] = itemWithMeta(Material.DIAMOND_SWORD, 1);
+		items[8] = item(Material.STONE, 200); // Needs more than one byte
+		items[53] = item(Material.DIRT, 32);
+		assertSameItems(items, serializer.deserialize(serializer.serialize(items), null));
+	}
+
+	@Test
+	public void testEmptyInventory() throws DataFormatException
+	{
+		ItemStack[] items = { null, item(Material.AIR, 1), item(Material.STONE, 0) };
+		assertSameItems(new ItemStack[3], serializer.deserialize(serializer.serialize(items), null));
+		assertSameItems(new ItemStack[0], serializer.deserialize(serializer.serialize(new ItemStack[0]), null));
+	}
+
+	@Test
+	public void testMaterialNameIsOnlyWrittenOnce()
+	{
+		ItemStack[] items = new ItemStack[27];
+		Arrays.fill(items, item(Material.COBBLESTONE, 64));
+		assertEquals(1, countOccurrences(serializer.serialize(items), "COBBLESTONE"));
+	}
+
+	@Test
+	public void testReadFormatVersion1() throws DataFormatException
+	{ // Version 1 has no data version
+		ItemStack[] items = serializer.deserialize(stream(1, 3, 2, 0, 0, "STONE", 5, 0, 1, 0, 7, 0), null);
+		assertSameItems(new ItemStack[] { item(Material.STONE, 5), null, item(Material.STONE, 7) }, items);
+	}
+
+	@Test
+	public void testUnknownMaterialIsSkipped() throws DataFormatException
+	{
+		List<String> lost = new ArrayList<>();
+		// Slot 0: unknown material, slot 2: stone, slot 3: the unknown material again
+		ItemStack[] items = serializer.deserialize(stream(2, 0, 4, 3, 0, 0, "REMOVED_MATERIAL", 1, 0, 1, 2, "STONE", 3, 0, 0, 0, 4, 0), lost);
+		assertSameItems(new ItemStack[] { null, null, item(Material.STONE, 3), null }, items);
+		assertEquals(Arrays.asList("REMOVED_MATERIAL", "REMOVED_MATERIAL"), lost);
+	}
+
+	@Test
+	public void testBrokenNBTItemIsSkipped() throws DataFormatException
+	{
+		List<String> lost = new ArrayList<>();
+		byte[] nbt = "REMOVED_MATERIAL:1".getBytes(StandardCharsets.UTF_8);
+		ItemStack[] items = serializer.deserialize(stream(2, 0, 2, 2, 0, (nbt.length << 1) | 1, nbt, 0, 0, "DIRT", 2, 0), lost);
+		assertNull(items[0], "The item that failed to load should be left out");
+		assertSameItems(new ItemStack[] { null, item(Material.DIRT, 2) }, items);
+		assertEquals(1, lost.size());
+	}
+
+	@Test
+	public void testDamagedData()
+	{
+		byte[] valid = serializer.serialize(new ItemStack[] { item(Material.STONE, 1), item(Material.DIRT, 2) });
+		assertThrows(DataFormatException.class, () -> serializer.deserialize(new byte[0], null));
+		assertThrows(DataFormatException.class, () -> serializer.deserialize(stream(9, 0, 1, 0), null), "Unknown format versions should be rejected");
+		assertThrows(DataFormatException.class, () -> serializer.deserialize(Arrays.copyOf(valid, valid.length - 1), null), "Truncated data should be rejected");
+		assertThrows(DataFormatException.class, () -> serializer.deserialize(stream(2, 0, 1, 1, 1, 0, "STONE", 1, 0), null), "Slots outside of the inventory should be rejected");
+		assertThrows(DataFormatException.class, () -> serializer.deserialize(stream(2, 0, 1, 1, 0, 2, 1, 0), null), "References to unknown materials should be rejected");
+		assertThrows(DataFormatException.class, () -> serializer.deserialize(stream(2, 0, 1, 2, 0, 0, "STONE", 1, 0), null), "More items than slots should be rejected");
+	}
+}
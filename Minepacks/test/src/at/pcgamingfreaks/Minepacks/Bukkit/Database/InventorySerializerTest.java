@@ -0,0 +1,153 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import static at.pcgamingfreaks.Minepacks.Bukkit.Database.TestItems.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InventorySerializerTest
+{
+	private static final Logger LOGGER = Logger.getLogger("InventorySerializerTest");
+	private static final byte[] DICTIONARY = "STONE:64;DIAMOND_SWORD:1;DIRT:STONE".getBytes(StandardCharsets.UTF_8);
+	private static final ItemStack[] ITEMS = { item(Material.STONE, 64), null, itemWithMeta(Material.DIAMOND_SWORD, 1), item(Material.DIRT, 12), null, null, item(Material.STONE, 3), null, null };
+
+	private static InventorySerializer makeSerializer(final int compressionLevel, final boolean compact)
+	{
+		return new InventorySerializer(LOGGER, makeNBTSerializer(), compressionLevel, compact);
+	}
+
+	private static InventorySerializer makeSerializerWithDictionary(final boolean compact)
+	{
+		InventorySerializer serializer = makeSerializer(6, compact);
+		assertTrue(serializer.setActiveDictionary(serializer.addDictionary(DICTIONARY)), "A known dictionary should be usable");
+		return serializer;
+	}
+
+	private static SerializedBackpack assertRoundTrip(final InventorySerializer serializer, final int expectedVersion)
+	{
+		assertEquals(expectedVersion, serializer.getUsedSerializer());
+		SerializedBackpack stored = serializer.serialize(ITEMS);
+		assertEquals(expectedVersion, stored.getVersion(), "The data should be stored with the used serializer");
+		assertSameItems(ITEMS, serializer.deserialize(stored.getData(), stored.getVersion()));
+		return stored;
+	}
+
+	@Test
+	public void testNBT()
+	{
+		assertRoundTrip(makeSerializer(-1, false), 2);
+	}
+
+	@Test
+	public void testCompressedNBT()
+	{
+		SerializedBackpack stored = assertRoundTrip(makeSerializer(6, false), 3);
+		assertEquals(makeSerializer(-1, false).serialize(ITEMS).getData().length, InventorySerializer.getUncompressedSize(stored));
+	}
+
+	@Test
+	public void testCompressedNBTWithDictionary()
+	{
+		assertRoundTrip(makeSerializerWithDictionary(false), 4);
+	}
+
+	@Test
+	public void testCompact()
+	{
+		assertRoundTrip(makeSerializer(-1, true), 5);
+	}
+
+	@Test
+	public void testCompressedCompact()
+	{
+		SerializedBackpack stored = assertRoundTrip(makeSerializer(6, true), 6);
+		assertEquals(makeSerializer(-1, true).serialize(ITEMS).getData().length, InventorySerializer.getUncompressedSize(stored));
+	}
+
+	@Test
+	public void testCompressedCompactWithDictionary()
+	{
+		assertRoundTrip(makeSerializerWithDictionary(true), 7);
+	}
+
+	@Test
+	public void testNoCompressionWithoutNBTSerializer()
+	{
+		assertEquals(0, new InventorySerializer(LOGGER, null, 6, true).getUsedSerializer(), "Only the bukkit serializer can be used without the NBT serializer");
+	}
+
+	@Test
+	public void testUnknownDictionary()
+	{
+		InventorySerializer serializer = makeSerializer(6, true);
+		assertFalse(serializer.setActiveDictionary(InventorySerializer.getDictionaryId(DICTIONARY)), "A dictionary that has not been added should not be usable");
+		assertEquals(6, serializer.getUsedSerializer());
+	}
+
+	@Test
+	public void testMissingDictionary()
+	{
+		for(boolean compact : new boolean[] { false, true })
+		{
+			SerializedBackpack stored = makeSerializerWithDictionary(compact).serialize(ITEMS);
+			InventorySerializer serializer = makeSerializer(6, compact);
+			assertTrue(serializer.isDictionaryMissing(stored.getData(), stored.getVersion()), "The dictionary should be reported missing");
+			assertNull(serializer.deserialize(stored.getData(), stored.getVersion()), "Data can't be loaded without its dictionary");
+			assertEquals(InventorySerializer.getDictionaryId(DICTIONARY), serializer.addDictionary(DICTIONARY));
+			assertFalse(serializer.isDictionaryMissing(stored.getData(), stored.getVersion()));
+			assertSameItems(ITEMS, serializer.deserialize(stored.getData(), stored.getVersion()));
+		}
+		SerializedBackpack stored = makeSerializer(6, true).serialize(ITEMS);
+		assertFalse(makeSerializer(6, true).isDictionaryMissing(stored.getData(), stored.getVersion()), "Data compressed without a dictionary never misses one");
+	}
+
+	@Test
+	public void testDamagedData()
+	{
+		InventorySerializer serializer = makeSerializer(6, true);
+		SerializedBackpack stored = serializer.serialize(ITEMS);
+		assertNull(serializer.deserialize(Arrays.copyOf(stored.getData(), stored.getData().length - 4), stored.getVersion()), "Truncated data should not be loaded");
+		byte[] wrongChecksum = stored.getData().clone();
+		wrongChecksum[wrongChecksum.length - 1] ^= (byte) 0xFF;
+		assertNull(serializer.deserialize(wrongChecksum, stored.getVersion()), "Data with a wrong checksum should not be loaded");
+		byte[] wrongSize = stored.getData().clone();
+		wrongSize[0] = (byte) 0x7F;
+		assertNull(serializer.deserialize(wrongSize, stored.getVersion()), "Data with an invalid uncompressed size should not be loaded");
+		assertNull(serializer.deserialize(new byte[] { 1, 2 }, 3), "Too short data should not be loaded");
+	}
+
+	@Test
+	public void testGetUncompressedData()
+	{
+		InventorySerializer compact = makeSerializer(6, true);
+		byte[] raw = makeSerializer(-1, true).serialize(ITEMS).getData();
+		assertArrayEquals(raw, compact.getUncompressedData(compact.serialize(ITEMS)), "Compressed data should be inflated");
+		assertArrayEquals(raw, compact.getUncompressedData(makeSerializer(-1, true).serialize(ITEMS)), "Raw data should be returned as it is");
+		byte[] converted = compact.getUncompressedData(makeSerializer(6, false).serialize(ITEMS));
+		assertNotNull(converted, "Data of another format should be converted");
+		assertSameItems(ITEMS, compact.deserialize(converted, 5));
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapBackpackCacheTest
+{
+	private static final UUID PLAYER1 = UUID.fromString("00000000-0000-0000-0000-000000000001"), PLAYER2 = UUID.fromString("00000000-0000-0000-0000-000000000002");
+
+	private static byte[] repeated(final String content, final int times)
+	{
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < times; i++) builder.append(content);
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void assertTaken(final OffHeapBackpackCache cache, final UUID owner, final SerializedBackpack expected, final int ownerID)
+	{
+		OffHeapBackpackCache.Entry entry = cache.take(owner);
+		assertNotNull(entry, "The backpack of " + owner + " should be cached");
+		assertEquals(expected, entry.getStored(), "The data should be returned in the format it has been stored with");
+		assertEquals(ownerID, entry.getOwnerID());
+	}
+
+	@Test
+	public void testUncompressedDataIsDeflated()
+	{
+		OffHeapBackpackCache cache = new OffHeapBackpackCache(1024 * 1024);
+		for(int version : new int[] { 2, 5 })
+		{
+			SerializedBackpack stored = new SerializedBackpack(repeated("STONE:64;", 100), version);
+			cache.put(PLAYER1, OffHeapBackpackCache.makeEntry(stored, 7));
+			assertTaken(cache, PLAYER1, stored, 7);
+		}
+	}
+
+	@Test
+	public void testCompressedDataIsKept()
+	{
+		OffHeapBackpackCache cache = new OffHeapBackpackCache(1024 * 1024);
+		SerializedBackpack stored = new SerializedBackpack(new byte[] { 0, 0, 0, 1, 2, 3 }, 6); // Not valid, it is only copied
+		cache.put(PLAYER1, OffHeapBackpackCache.makeEntry(stored, 3));
+		assertTaken(cache, PLAYER1, stored, 3);
+		assertNull(cache.take(PLAYER1), "Taken backpacks should be removed from the cache");
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted()
+	{
+		byte[] data = new byte[100];
+		OffHeapBackpackCache cache = new OffHeapBackpackCache(150);
+		cache.put(PLAYER1, OffHeapBackpackCache.makeEntry(new SerializedBackpack(data, 6), 1));
+		cache.put(PLAYER2, OffHeapBackpackCache.makeEntry(new SerializedBackpack(Arrays.copyOf(data, 51), 6), 2));
+		assertNull(cache.take(PLAYER1), "The oldest backpack should be evicted once the cache is full");
+		assertNotNull(cache.take(PLAYER2));
+		cache.put(PLAYER1, OffHeapBackpackCache.makeEntry(new SerializedBackpack(new byte[200], 6), 1));
+		assertNull(cache.take(PLAYER1), "Backpacks larger than the cache should not be stored");
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database;
+
+import at.pcgamingfreaks.Bukkit.ItemStackSerializer.ItemStackSerializer;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Items and an NBT serializer that work without a running server. The item meta of Bukkit item stacks can only be accessed with a server, so the test items decide on their own if they have meta.
+ */
+final class TestItems
+{
+	private TestItems() {}
+
+	static final class TestItemStack extends ItemStack
+	{
+		private final boolean meta;
+
+		TestItemStack(final Material material, final int amount, final boolean meta)
+		{
+			super(material, amount);
+			this.meta = meta;
+		}
+
+		@Override
+		public boolean hasItemMeta()
+		{
+			return meta;
+		}
+
+		@Override
+		public short getDurability()
+		{
+			return 0;
+		}
+	}
+
+	static ItemStack item(final Material material, final int amount)
+	{
+		return new TestItemStack(material, amount, false);
+	}
+
+	static ItemStack itemWithMeta(final Material material, final int amount)
+	{
+		return new TestItemStack(material, amount, true);
+	}
+
+	/**
+	 * Creates a serializer that stores the material and the amount of the items as text, like the NBT serializer it keeps the meta of the items.
+	 * Unknown materials fail to load.
+	 */
+	static ItemStackSerializer makeNBTSerializer()
+	{
+		return (ItemStackSerializer) Proxy.newProxyInstance(TestItems.class.getClassLoader(), new Class[] { ItemStackSerializer.class }, (proxy, method, args) -> {
+			switch(method.getName())
+			{
+				case "serialize": return serialize((ItemStack[]) args[0]);
+				case "deserialize": return deserialize((byte[]) args[0]);
+				default: throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	private static byte[] serialize(final ItemStack[] items)
+	{
+		StringBuilder builder = new StringBuilder();
+		for(ItemStack item : items)
+		{
+			if(builder.length() > 0) builder.append(';');
+			if(item != null) builder.append(item.getType().name()).append(':').append(item.getAmount());
+		}
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static ItemStack[] deserialize(final byte[] data)
+	{
+		String[] entries = new String(data, StandardCharsets.UTF_8).split(";", -1);
+		ItemStack[] items = new ItemStack[entries.length];
+		for(int i = 0; i < entries.length; i++)
+		{
+			if(entries[i].isEmpty()) continue;
+			String[] parts = entries[i].split(":");
+			Material material = Material.getMaterial(parts[0]);
+			if(material == null) throw new IllegalArgumentException("Unknown material " + parts[0]);
+			items[i] = itemWithMeta(material, Integer.parseInt(parts[1]));
+		}
+		return items;
+	}
+
+	static void assertSameItems(final ItemStack[] expected, final ItemStack[] actual)
+	{
+		assertNotNull(actual, "The items should be loaded");
+		assertEquals(expected.length, actual.length, "The size of the inventory should not be changed");
+		for(int slot = 0; slot < expected.length; slot++)
+		{
+			if(expected[slot] == null)
+			{
+				assertNull(actual[slot], "Slot " + slot + " should be empty");
+				continue;
+			}
+			assertNotNull(actual[slot], "Slot " + slot + " should not be empty");
+			assertEquals(expected[slot].getType(), actual[slot].getType(), "The material in slot " + slot + " should not be changed");
+			assertEquals(expected[slot].getAmount(), actual[slot].getAmount(), "The amount in slot " + slot + " should not be changed");
+		}
+	}
+}
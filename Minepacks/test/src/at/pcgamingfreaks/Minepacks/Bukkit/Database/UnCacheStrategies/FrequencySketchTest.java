@@ -0,0 +1,99 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrequencySketchTest
+{
+	private static final UUID PLAYER = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+	private static UUID[] makeUUIDs(final int count)
+	{
+		Random random = new Random(42);
+		UUID[] uuids = new UUID[count];
+		for(int i = 0; i < count; i++)
+		{
+			uuids[i] = new UUID(random.nextLong(), random.nextLong());
+		}
+		return uuids;
+	}
+
+	@Test
+	public void testCountsIncrements()
+	{
+		FrequencySketch sketch = new FrequencySketch(1000);
+		assertEquals(0, sketch.frequency(PLAYER));
+		for(int i = 1; i <= 5; i++)
+		{
+			sketch.increment(PLAYER);
+			assertEquals(i, sketch.frequency(PLAYER));
+		}
+	}
+
+	@Test
+	public void testNeverUnderestimates()
+	{
+		FrequencySketch sketch = new FrequencySketch(100);
+		UUID[] uuids = makeUUIDs(100);
+		for(int i = 0; i < uuids.length; i++)
+		{
+			for(int j = 0; j < i % 8; j++)
+			{
+				sketch.increment(uuids[i]);
+			}
+		}
+		for(int i = 0; i < uuids.length; i++)
+		{
+			assertTrue(sketch.frequency(uuids[i]) >= i % 8, "The frequency of a key should never be underestimated");
+		}
+	}
+
+	@Test
+	public void testSaturates()
+	{
+		FrequencySketch sketch = new FrequencySketch(1000);
+		for(int i = 0; i < 100; i++)
+		{
+			sketch.increment(PLAYER);
+		}
+		assertEquals(15, sketch.frequency(PLAYER), "The counters should stop at their max value");
+	}
+
+	@Test
+	public void testAging()
+	{
+		FrequencySketch sketch = new FrequencySketch(16); // Counters get halved after 160 additions
+		for(int i = 0; i < 12; i++)
+		{
+			sketch.increment(PLAYER);
+		}
+		assertTrue(sketch.frequency(PLAYER) >= 12);
+		for(UUID uuid : makeUUIDs(148))
+		{
+			sketch.increment(uuid);
+		}
+		assertTrue(sketch.frequency(PLAYER) <= 7, "The frequency should be halved once the sample size is reached");
+		assertTrue(sketch.frequency(PLAYER) >= 6, "The frequency should not be lost completely");
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ *   Copyright (C) 2021 GeorgH93
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pcgamingfreaks.Minepacks.Bukkit.Database.UnCacheStrategies;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest
+{
+	/**
+	 * Advances the wheel till the key expires.
+	 *
+	 * @return The tick the key expired in. -1 if it did not expire within the given amount of ticks.
+	 */
+	private static int advanceTillExpired(final TimingWheel<String> wheel, final String key, final int maxTicks)
+	{
+		for(int tick = 1; tick <= maxTicks; tick++)
+		{
+			if(wheel.advance().contains(key)) return tick;
+		}
+		return -1;
+	}
+
+	@Test
+	public void testExpiry()
+	{
+		TimingWheel<String> wheel = new TimingWheel<>(8);
+		wheel.schedule("a", 3);
+		assertTrue(wheel.isScheduled("a"));
+		assertEquals(3, advanceTillExpired(wheel, "a", 20));
+		assertFalse(wheel.isScheduled("a"), "An expired key should not be scheduled anymore");
+		assertEquals(-1, advanceTillExpired(wheel, "a", 20), "A key should only expire once");
+	}
+
+	@Test
+	public void testMinimumDelay()
+	{
+		TimingWheel<String> wheel = new TimingWheel<>(8);
+		wheel.schedule("a", 0);
+		wheel.schedule("b", -5);
+		assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(wheel.advance()), "Keys without delay should expire on the next tick");
+	}
+
+	@Test
+	public void testDelaysLongerThanOneRotation()
+	{
+		for(int delay : new int[] { 7, 8, 9, 16, 20, 100 })
+		{
+			TimingWheel<String> wheel = new TimingWheel<>(8);
+			wheel.advance(); // The cursor should not matter
+			wheel.schedule("a", delay);
+			assertEquals(delay, advanceTillExpired(wheel, "a", 200), "A key with a delay of " + delay + " ticks expired at the wrong tick");
+		}
+	}
+
+	@Test
+	public void testReschedule()
+	{
+		TimingWheel<String> wheel = new TimingWheel<>(8);
+		wheel.schedule("a", 3);
+		wheel.advance();
+		wheel.schedule("a", 10); // Replaces the old expiry
+		assertEquals(10, advanceTillExpired(wheel, "a", 20));
+	}
+
+	@Test
+	public void testCancel()
+	{
+		TimingWheel<String> wheel = new TimingWheel<>(8);
+		wheel.schedule("a", 3);
+		wheel.schedule("b", 3);
+		wheel.cancel("a");
+		wheel.cancel("c"); // Not scheduled, nothing should happen
+		assertFalse(wheel.isScheduled("a"));
+		wheel.advance();
+		wheel.advance();
+		List<String> expired = wheel.advance();
+		assertEquals(Arrays.asList("b"), expired, "A cancelled key should not expire");
+		assertEquals(-1, advanceTillExpired(wheel, "a", 20));
+	}
+
+	@Test
+	public void testManyKeys()
+	{
+		TimingWheel<String> wheel = new TimingWheel<>(4);
+		for(int i = 0; i < 100; i++)
+		{
+			wheel.schedule("key" + i, i + 1);
+		}
+		for(int tick = 1; tick <= 100; tick++)
+		{
+			assertEquals(Arrays.asList("key" + (tick - 1)), wheel.advance(), "Exactly one key should expire in tick " + tick);
+		}
+		assertTrue(wheel.advance().isEmpty());
+	}
+}